@@ -98,5 +98,6 @@ public class VarScript extends JavaPlugin {
         for (Workspace workspace : workspaceService.getWorkspaces()) {
             workspace.removeWorkspace();
         }
+        workspaceService.shutdown();
     }
 }
@@ -1,6 +1,7 @@
 package ru.dpohvar.varscript.boot;
 
 import groovy.lang.GroovyClassLoader;
+import ru.dpohvar.varscript.utils.DirectoryWatcher;
 import ru.dpohvar.varscript.utils.ReflectionUtils;
 
 import java.io.File;
@@ -9,7 +10,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class VarScriptClassLoader extends URLClassLoader {
 
@@ -116,29 +119,50 @@ public class VarScriptClassLoader extends URLClassLoader {
         }
     }
 
-    public void monitorFolder(GroovyClassLoader groovyClassLoader, File serviceFolder){
-        this.groovyClassLoader = groovyClassLoader;
-        this.serviceFolder = serviceFolder;
+    public void monitorFolder(GroovyClassLoader groovyClassLoader, File serviceFolder, DirectoryWatcher watcher){
+        synchronized (monitoredFolders) {
+            this.groovyClassLoader = groovyClassLoader;
+            this.serviceFolder = serviceFolder;
+            this.watcher = watcher;
+            monitoredFolders.clear();
+            if (watcher != null) lastGeneration = watcher.getGeneration();
+            addServiceFolderUrls();
+        }
     }
 
     private GroovyClassLoader groovyClassLoader;
     private File serviceFolder;
-    private int lastClassLoaderUrlListLength = 0;
+    private DirectoryWatcher watcher;
+    private volatile long lastGeneration;
+    private final Set<File> monitoredFolders = new HashSet<File>();
+
     private boolean folderHasChanges(){
         if (groovyClassLoader == null || serviceFolder == null) return false;
+        if (watcher != null && watcher.getGeneration() == lastGeneration) return false;
+        synchronized (monitoredFolders) {
+            if (watcher != null) {
+                long generation = watcher.getGeneration();
+                if (generation == lastGeneration) return false;
+                lastGeneration = generation;
+            }
+            return addServiceFolderUrls();
+        }
+    }
+
+    private boolean addServiceFolderUrls(){
+        boolean added = false;
         File[] files = serviceFolder.listFiles();
         if (files != null) for (File file : files) {
-            if (!file.isDirectory()) continue;
+            if (!file.isDirectory() || monitoredFolders.contains(file)) continue;
             try {
                 groovyClassLoader.addURL(file.toURI().toURL());
+                monitoredFolders.add(file);
+                added = true;
             } catch (MalformedURLException e) {
                 e.printStackTrace();
             }
         }
-        int urlListLength = groovyClassLoader.getURLs().length;
-        if (lastClassLoaderUrlListLength == urlListLength) return false;
-        lastClassLoaderUrlListLength = urlListLength;
-        return true;
+        return added;
     }
 
 }
@@ -6,9 +6,11 @@ import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 import ru.dpohvar.varscript.VarScript;
 import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.workspace.CallerScript;
+import ru.dpohvar.varscript.workspace.CompileExecutor;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 public class GroovyBufferRunner {
 
@@ -24,20 +26,29 @@ public class GroovyBufferRunner {
         VarScript plugin = caller.getService().getPlugin();
         BukkitScheduler scheduler = plugin.getServer().getScheduler();
         AsyncCompiler asyncCompiler = new AsyncCompiler(scheduler, plugin, workspace, caller, script);
-        scheduler.runTaskAsynchronously(plugin, asyncCompiler);
+        CompileExecutor executor = plugin.getWorkspaceService().getCompileExecutor();
+        try {
+            executor.submit(caller, workspace.getName() + "\n" + script, asyncCompiler);
+        } catch (RejectedExecutionException e) {
+            caller.sendErrorMessage(e.getMessage(), workspace.getName());
+        }
     }
 
     public Caller getCaller() {
         return caller;
     }
 
-    private static class AsyncCompiler implements Runnable{
+    /**
+     * Compiles script once for all identical submissions of caller and runs it for each of them
+     */
+    private static class AsyncCompiler implements CompileExecutor.CoalescingTask {
 
         private final Workspace workspace;
         private final Caller caller;
         private final String script;
         private final VarScript plugin;
         private final BukkitScheduler scheduler;
+        private int runs = 1;
 
         AsyncCompiler(BukkitScheduler scheduler, VarScript plugin, Workspace workspace, Caller caller, String script){
             this.plugin = plugin;
@@ -47,6 +58,11 @@ public class GroovyBufferRunner {
             this.script = script;
         }
 
+        @Override
+        public synchronized void coalesce(Runnable task) {
+            runs++;
+        }
+
         @Override
         public void run() {
             Object result = null;
@@ -56,8 +72,22 @@ public class GroovyBufferRunner {
             } catch (Exception e) {
                 compileException = e;
             }
-            SyncExecutor syncExecutor = new SyncExecutor(result, caller, workspace, compileException);
-            scheduler.runTask(plugin, syncExecutor);
+            int runs;
+            synchronized (this) {
+                runs = this.runs;
+            }
+            for (int i = 0; i < runs; i++) {
+                Object runResult = result;
+                Exception runException = compileException;
+                if (i > 0 && result instanceof CallerScript) try {
+                    CallerScript callerScript = (CallerScript) result.getClass().newInstance();
+                    runResult = callerScript.initializeScript(workspace, caller, null);
+                } catch (Exception e) {
+                    runResult = null;
+                    runException = e;
+                }
+                scheduler.runTask(plugin, new SyncExecutor(runResult, caller, workspace, runException));
+            }
         }
     }
 
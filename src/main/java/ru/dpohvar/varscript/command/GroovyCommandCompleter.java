@@ -21,6 +21,7 @@ import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.utils.PreparedScriptProperties;
 import ru.dpohvar.varscript.utils.ScriptProperties;
 import ru.dpohvar.varscript.workspace.CallerScript;
+import ru.dpohvar.varscript.workspace.DynamicModifier;
 import ru.dpohvar.varscript.workspace.Workspace;
 import ru.dpohvar.varscript.workspace.WorkspaceService;
 
@@ -151,17 +152,16 @@ public class GroovyCommandCompleter implements TabCompleter {
                 String name = key.toString();
                 if (name.contains(firstToken)) result.add(name);
             }
-            for (GroovyObject modifier : CallerScript.getDynamicModifiers()) {
-                Object[] params = {properties};
+            for (DynamicModifier modifier : CallerScript.getDynamicModifiers()) {
                 try {
-                    Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getPropertyMapFor", params);
+                    Map<?,?> map = modifier.getPropertyMapFor(properties);
                     for (Object key : map.keySet()) {
                         String name = key.toString();
                         if (name.contains(firstToken)) result.add(name);
                     }
                 } catch (Exception ignored) {}
                 try {
-                    Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getMethodMapFor", params);
+                    Map<?,?> map = modifier.getMethodMapFor(properties);
                     for (Object key : map.keySet()) {
                         String name = key.toString();
                         if (name.contains(firstToken)) result.add(name+"(");
@@ -430,10 +430,9 @@ public class GroovyCommandCompleter implements TabCompleter {
                     return;
                 }
             }
-            for (GroovyObject modifier : CallerScript.getDynamicModifiers()) {
-                Object[] params = {properties};
+            for (DynamicModifier modifier : CallerScript.getDynamicModifiers()) {
                 try {
-                    Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getPropertyMapFor", params);
+                    Map<?,?> map = modifier.getPropertyMapFor(properties);
                     Object result = map.get(firstToken);
                     if (result != null || map.containsKey(firstToken)) {
                         Class resultClass = result instanceof Class ? (Class) result : null;
@@ -446,7 +445,7 @@ public class GroovyCommandCompleter implements TabCompleter {
                     }
                 } catch (Exception ignored) {}
                 try {
-                    Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getMethodMapFor", params);
+                    Map<?,?> map = modifier.getMethodMapFor(properties);
                     String funToken = firstToken;
                     if (funToken.endsWith("(")) funToken = firstToken.substring(0, funToken.length()-1);
                     Object result = map.get(funToken);
@@ -658,10 +657,9 @@ public class GroovyCommandCompleter implements TabCompleter {
                 }
             }
             if (workspace != null) {
-                for (GroovyObject modifier : CallerScript.getDynamicModifiers()) {
-                    Object[] params = {properties};
+                for (DynamicModifier modifier : CallerScript.getDynamicModifiers()) {
                     try {
-                        Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getPropertyMapFor", params);
+                        Map<?,?> map = modifier.getPropertyMapFor(properties);
                         Object value = map.get(firstToken);
                         if (!(value instanceof Class)) return null;
                         return InvokerHelper.getMetaClass((Class) value);
@@ -682,10 +680,9 @@ public class GroovyCommandCompleter implements TabCompleter {
                     return InvokerHelper.getMetaClass(metaMethod.getReturnType());
                 }
             }
-            for (GroovyObject modifier : CallerScript.getDynamicModifiers()) {
-                Object[] params = {properties};
+            for (DynamicModifier modifier : CallerScript.getDynamicModifiers()) {
                 try {
-                    Map<?,?> map = (Map) modifier.getMetaClass().invokeMethod(modifier, "getMethodMapFor", params);
+                    Map<?,?> map = modifier.getMethodMapFor(properties);
                     Object value = map.get(curMethodName);
                     if (!(value instanceof Class)) return null;
                     return InvokerHelper.getMetaClass(value);
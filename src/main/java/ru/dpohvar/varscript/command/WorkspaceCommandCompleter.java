@@ -24,7 +24,7 @@ import java.util.List;
 
 public class WorkspaceCommandCompleter implements TabCompleter {
 
-    private static final List<String> commands = Arrays.asList("list", "set", "reload", "remove", "create","delete-files", "stop", "git", "autorun");
+    private static final List<String> commands = Arrays.asList("list", "set", "reload", "compile", "remove", "create","delete-files", "stop", "profile", "git", "autorun");
     private final VarScript plugin;
 
     public WorkspaceCommandCompleter(VarScript plugin) {
@@ -46,13 +46,14 @@ public class WorkspaceCommandCompleter implements TabCompleter {
         WorkspaceService service = plugin.getWorkspaceService();
         if (strings.length == 2) {
             List<String> result = new ArrayList<String>();
-            if (cmd.equals("reload")||cmd.equals("remove")||cmd.equals("stop")||cmd.equals("set")||cmd.equals("list")||cmd.equals("clear")) {
+            if (cmd.equals("reload")||cmd.equals("compile")||cmd.equals("remove")||cmd.equals("stop")||cmd.equals("profile")||cmd.equals("set")||cmd.equals("list")||cmd.equals("clear")) {
                 for (Workspace workspace : service.getWorkspaces()) {
                     String name = workspace.getName();
                     if (name.startsWith(strings[1])) result.add(name);
                 }
             }
-            if (cmd.equals("reload")||cmd.equals("create")||cmd.equals("list")||cmd.equals("delete-files")) {
+            if (cmd.equals("compile") && "all".startsWith(strings[1])) result.add("all");
+            if (cmd.equals("reload")||cmd.equals("compile")||cmd.equals("create")||cmd.equals("list")||cmd.equals("delete-files")) {
                 File[] files = service.getAutorunDirectory().listFiles();
                 if (files != null) for (File file : files) {
                     if (!file.isFile()) continue;
@@ -17,6 +17,10 @@ import org.eclipse.jgit.transport.URIish;
 import ru.dpohvar.varscript.VarScript;
 import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.command.git.*;
+import ru.dpohvar.varscript.trigger.ProfiledTrigger;
+import ru.dpohvar.varscript.trigger.Trigger;
+import ru.dpohvar.varscript.trigger.TriggerContainer;
+import ru.dpohvar.varscript.trigger.TriggerStats;
 import ru.dpohvar.varscript.workspace.Workspace;
 import ru.dpohvar.varscript.workspace.WorkspaceService;
 
@@ -42,7 +46,9 @@ public class WorkspaceCommandExecutor implements CommandExecutor{
             "\n&e/ws set &6<name>&r" +
             "\n&e/ws create &7[&6<name>&7]&r" +
             "\n&e/ws reload &7[&6<name>&7]&r" +
+            "\n&e/ws compile &7[&6<name>&7|&eall&7]&r" +
             "\n&e/ws stop &7[&6<name>&7]&r" +
+            "\n&e/ws profile &7[&6<name>&7]&r" +
             "\n&e/ws remove &7[&6<name>&7]&r" +
             "\n&e/ws delete &7[&6<name>&7]&r" +
             "\n&e/ws autorun &7[&eon&7|&eoff&7 [&6<name>&7]]&r" +
@@ -65,6 +71,8 @@ public class WorkspaceCommandExecutor implements CommandExecutor{
         if (strings.length == 1 && strings[0].equals("reload")) return onCommandReload(caller, null);
         if (strings.length == 1 && strings[0].equals("create")) return onCommandCreate(caller, null);
         if (strings.length == 1 && strings[0].equals("stop")) return onCommandStop(caller, null);
+        if (strings.length == 1 && strings[0].equals("compile")) return onCommandCompile(caller, null);
+        if (strings.length == 1 && strings[0].equals("profile")) return onCommandProfile(caller, null);
         if (strings.length == 1 && strings[0].equals("autorun")) return onCommandAutorun(caller, null, null);
 
         if (strings.length == 2 && strings[0].equals("list")) return onCommandList(caller, strings[1]);
@@ -74,6 +82,8 @@ public class WorkspaceCommandExecutor implements CommandExecutor{
         if (strings.length == 2 && strings[0].equals("reload")) return onCommandReload(caller, strings[1]);
         if (strings.length == 2 && strings[0].equals("create")) return onCommandCreate(caller, strings[1]);
         if (strings.length == 2 && strings[0].equals("stop")) return onCommandStop(caller, strings[1]);
+        if (strings.length == 2 && strings[0].equals("compile")) return onCommandCompile(caller, strings[1]);
+        if (strings.length == 2 && strings[0].equals("profile")) return onCommandProfile(caller, strings[1]);
         if (strings.length == 2 && strings[0].equals("autorun")) return onCommandAutorun(caller, strings[1], null);
         if (strings.length == 3 && strings[0].equals("autorun")) return onCommandAutorun(caller, strings[1], strings[2]);
 
@@ -315,6 +325,43 @@ public class WorkspaceCommandExecutor implements CommandExecutor{
         return true;
     }
 
+    private boolean onCommandProfile(Caller caller, String workspaceName) {
+        WorkspaceService service = plugin.getWorkspaceService();
+        String callerWorkspaceName = service.getWorkspaceName(caller.getSender());
+        if (workspaceName == null) workspaceName = callerWorkspaceName;
+        Workspace workspace = service.getWorkspace(workspaceName);
+        if (workspace == null) {
+            caller.sendErrorMessage("workspace "+workspaceName+" is not exists", callerWorkspaceName);
+            return true;
+        }
+        StringBuilder builder = new StringBuilder("profile of workspace ").append(workspaceName);
+        int count = appendProfile(builder, workspace.getTriggers(), "");
+        ProfiledTrigger[] finishedTriggers = workspace.getFinishedTriggers();
+        if (finishedTriggers.length > 0) {
+            builder.append('\n').append(ChatColor.GRAY).append("finished and disabled").append(ChatColor.RESET);
+            count += appendProfile(builder, finishedTriggers, "  ");
+        }
+        if (count == 0) builder.append(": no triggers");
+        caller.sendMessage(builder, callerWorkspaceName);
+        return true;
+    }
+
+    private static int appendProfile(StringBuilder builder, Trigger[] triggers, String indent){
+        int count = 0;
+        for (Trigger trigger : triggers) {
+            if (trigger instanceof ProfiledTrigger) {
+                TriggerStats stats = ((ProfiledTrigger) trigger).getStats();
+                builder.append('\n').append(indent).append(ChatColor.YELLOW).append(trigger)
+                        .append(ChatColor.RESET).append(": ").append(stats);
+                count++;
+            } else if (trigger instanceof TriggerContainer) {
+                builder.append('\n').append(indent).append(ChatColor.YELLOW).append("container").append(ChatColor.RESET);
+                count += appendProfile(builder, ((TriggerContainer) trigger).getTriggers(), indent + "  ") + 1;
+            }
+        }
+        return count;
+    }
+
     private boolean onCommandStop(Caller caller, String workspaceName) {
         WorkspaceService service = plugin.getWorkspaceService();
         String callerWorkspaceName = service.getWorkspaceName(caller.getSender());
@@ -428,6 +475,32 @@ public class WorkspaceCommandExecutor implements CommandExecutor{
         return ret && path.delete();
     }
 
+    private boolean onCommandCompile(Caller caller, String workspaceName) {
+        WorkspaceService service = plugin.getWorkspaceService();
+        Set<String> names = new LinkedHashSet<String>();
+        if (workspaceName == null) {
+            names.add(service.getWorkspaceName(caller.getSender()));
+        } else if (workspaceName.equals("all")) {
+            for (Workspace workspace : service.getWorkspaces()) names.add(workspace.getName());
+            names.addAll(service.getWorkspaceAutoruns());
+            File[] files = service.getAutorunDirectory().listFiles();
+            if (files != null) for (File file : files) {
+                String fileName = file.getName();
+                if (file.isFile() && fileName.endsWith(".groovy") && fileName.length() > 7) {
+                    names.add(fileName.substring(0, fileName.length() - 7));
+                }
+            }
+            files = service.getServiceDirectory().listFiles();
+            if (files != null) for (File file : files) {
+                if (file.isDirectory()) names.add(file.getName());
+            }
+        } else {
+            names.add(workspaceName);
+        }
+        new WorkspaceCompileRunner(caller).compileAsync(names);
+        return true;
+    }
+
     private boolean onCommandReload(Caller caller, String workspaceName) {
         WorkspaceService service = plugin.getWorkspaceService();
         String callerWorkspaceName = service.getWorkspaceName(caller.getSender());
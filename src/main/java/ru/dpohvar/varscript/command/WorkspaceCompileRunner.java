@@ -0,0 +1,138 @@
+package ru.dpohvar.varscript.command;
+
+import org.bukkit.ChatColor;
+import org.bukkit.scheduler.BukkitScheduler;
+import ru.dpohvar.varscript.VarScript;
+import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.workspace.CompileReport;
+import ru.dpohvar.varscript.workspace.Workspace;
+import ru.dpohvar.varscript.workspace.WorkspaceService;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WorkspaceCompileRunner {
+
+    private final Caller caller;
+
+    public WorkspaceCompileRunner(Caller caller){
+        this.caller = caller;
+    }
+
+    /**
+     * Compile sources of workspaces asynchronously and send report to caller.
+     * Workspaces that are not running are compiled without start
+     * and their classes are kept only in bytecode cache
+     * @param workspaceNames names of workspaces
+     */
+    public void compileAsync(Collection<String> workspaceNames){
+        VarScript plugin = caller.getService().getPlugin();
+        WorkspaceService service = plugin.getWorkspaceService();
+        BukkitScheduler scheduler = plugin.getServer().getScheduler();
+        List<Workspace> workspaces = new ArrayList<Workspace>();
+        List<Workspace> detached = new ArrayList<Workspace>();
+        for (String name : workspaceNames) {
+            Workspace workspace = service.getWorkspace(name);
+            if (workspace == null) {
+                workspace = new Workspace(service, name);
+                detached.add(workspace);
+            }
+            workspaces.add(workspace);
+        }
+        AsyncCompiler asyncCompiler = new AsyncCompiler(scheduler, plugin, caller, workspaces, detached);
+        scheduler.runTaskAsynchronously(plugin, asyncCompiler);
+    }
+
+    public Caller getCaller() {
+        return caller;
+    }
+
+    private static class AsyncCompiler implements Runnable{
+
+        private final VarScript plugin;
+        private final BukkitScheduler scheduler;
+        private final Caller caller;
+        private final List<Workspace> workspaces;
+        private final List<Workspace> detached;
+
+        AsyncCompiler(BukkitScheduler scheduler, VarScript plugin, Caller caller, List<Workspace> workspaces, List<Workspace> detached){
+            this.plugin = plugin;
+            this.scheduler = scheduler;
+            this.caller = caller;
+            this.workspaces = workspaces;
+            this.detached = detached;
+        }
+
+        @Override
+        public void run() {
+            Map<Workspace,List<CompileReport>> reports = new LinkedHashMap<Workspace, List<CompileReport>>();
+            for (Workspace workspace : workspaces) {
+                reports.put(workspace, workspace.compileSources());
+            }
+            WorkspaceService service = plugin.getWorkspaceService();
+            for (Workspace workspace : detached) service.evictCompiledClasses(workspace);
+            scheduler.runTask(plugin, new SyncReporter(caller, reports));
+        }
+    }
+
+    private static class SyncReporter implements Runnable{
+
+        private final Caller caller;
+        private final Map<Workspace,List<CompileReport>> reports;
+
+        private SyncReporter(Caller caller, Map<Workspace, List<CompileReport>> reports) {
+            this.caller = caller;
+            this.reports = reports;
+        }
+
+        @Override
+        public void run() {
+            for (Map.Entry<Workspace, List<CompileReport>> entry : reports.entrySet()) {
+                Workspace workspace = entry.getKey();
+                String name = workspace.getName();
+                File root = workspace.getWorkspaceService().getAutorunDirectory();
+                List<CompileReport> workspaceReports = entry.getValue();
+                if (workspaceReports.isEmpty()) {
+                    caller.sendErrorMessage("no sources to compile", name);
+                    continue;
+                }
+                long totalTime = 0;
+                int errors = 0;
+                for (CompileReport report : workspaceReports) {
+                    totalTime += report.getTime();
+                    String fileName = relativeName(root, report.getFile());
+                    if (report.getError() != null) {
+                        errors++;
+                        caller.sendThrowable(report.getError(), name + ":" + fileName);
+                        continue;
+                    }
+                    caller.sendMessage(formatReport(fileName, report), name);
+                }
+                String summary = "compiled " + workspaceReports.size() + " sources in " + totalTime / 1000000 + " ms";
+                if (errors == 0) caller.sendMessage(summary, name);
+                else caller.sendErrorMessage(summary + ", " + ChatColor.RED + errors + " errors", name);
+            }
+        }
+    }
+
+    private static String formatReport(String fileName, CompileReport report){
+        StringBuilder builder = new StringBuilder();
+        builder.append(ChatColor.YELLOW).append(fileName).append(ChatColor.RESET).append(": ");
+        builder.append(report.getTime() / 1000000).append(" ms");
+        if (report.getClassCount() >= 0) builder.append(", ").append(report.getClassCount()).append(" classes");
+        if (report.getBytecodeSize() >= 0) builder.append(", ").append(report.getBytecodeSize()).append(" bytes");
+        if (report.isCached()) builder.append(ChatColor.GRAY).append(" (cached)");
+        return builder.toString();
+    }
+
+    private static String relativeName(File root, File file){
+        String rootPath = root.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (path.startsWith(rootPath)) return path.substring(rootPath.length());
+        return file.getName();
+    }
+}
@@ -2,43 +2,35 @@ package ru.dpohvar.varscript.extension;
 
 import groovy.lang.Closure;
 import org.bukkit.block.Block;
-import org.bukkit.event.block.Action;
-import org.bukkit.event.player.PlayerInteractEvent;
-import ru.dpohvar.varscript.trigger.BukkitEventTrigger;
+import ru.dpohvar.varscript.extension.region.Region;
+import ru.dpohvar.varscript.trigger.BlockClickTrigger;
+import ru.dpohvar.varscript.trigger.RegionTrigger;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 
 public class WorkspaceExt {
 
-    public static BukkitEventTrigger<PlayerInteractEvent> onClick(Workspace self, Block block, Closure closure) {
-        ClickClosure clickClosure = new ClickClosure(closure, block);
-        return self.listen(PlayerInteractEvent.class, clickClosure);
+    /**
+     * Handle right click on block, interaction is cancelled.
+     * Before version with block click index it returned {@code BukkitEventTrigger<PlayerInteractEvent>},
+     * now it returns {@link BlockClickTrigger}: event filters and priority can not be changed,
+     * use {@code listen(PlayerInteractEvent)} for that
+     * @return trigger of click
+     */
+    public static BlockClickTrigger onClick(Workspace self, Block block, Closure closure) {
+        return self.click(block, closure);
     }
 
+    public static BlockClickTrigger onClick(Workspace self, Block block, Object actions, Closure closure) {
+        return self.click(block, actions, closure);
+    }
 
-    private static class ClickClosure extends Closure {
-
-        Block block;
-
-        public ClickClosure(Closure owner, Block block) {
-            super(owner, null);
-            this.block = block;
-        }
-
-        @Override
-        public Object call(Object arg) {
-            PlayerInteractEvent event = (PlayerInteractEvent) arg;
-            if (!event.getClickedBlock().equals(block)) return null;
-            if (event.getAction() != Action.RIGHT_CLICK_BLOCK) return null;
-            event.setCancelled(true);
-            ((Closure) getOwner()).call(arg);
-            return null;
-        }
+    public static RegionTrigger onEnter(Workspace self, Region region, Closure closure) {
+        return self.enter(region, closure);
+    }
 
-        @Override
-        public Class[] getParameterTypes() {
-            return new Class[]{PlayerInteractEvent.class};
-        }
+    public static RegionTrigger onLeave(Workspace self, Region region, Closure closure) {
+        return self.leave(region, closure);
     }
 
 }
@@ -63,6 +63,11 @@ public class BoxArea extends Region {
         return true;
     }
 
+    @Override
+    public double[] getBounds() {
+        return new double[]{x1, Double.NEGATIVE_INFINITY, z1, x2, Double.POSITIVE_INFINITY, z2};
+    }
+
     @Override
     public List<Block> getBlocks() {
         if (blockCache == null) blockCache = getBlocks0();
@@ -90,6 +90,11 @@ public class BoxRegion extends Region {
         return true;
     }
 
+    @Override
+    public double[] getBounds() {
+        return new double[]{x1, y1, z1, x2, y2, z2};
+    }
+
     @Override
     public List<Block> getBlocks() {
         if (blockCache == null) blockCache = getBlocks0();
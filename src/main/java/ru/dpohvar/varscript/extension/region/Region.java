@@ -22,6 +22,14 @@ public abstract class Region implements Cloneable, Iterable<Block> {
 
     abstract public List<Block> getBorder();
 
+    /**
+     * Used by index of region triggers to find regions near location
+     * @return min x, y, z and max x, y, z of region, or null if region is not bounded
+     */
+    public double[] getBounds(){
+        return null;
+    }
+
     public boolean contains(Entity entity){
         return contains(entity.getLocation());
     }
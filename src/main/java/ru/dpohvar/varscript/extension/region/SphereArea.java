@@ -55,6 +55,11 @@ public class SphereArea extends Region {
         return l.distance(new Location(world, px, l.getY(), pz)) <= radius;
     }
 
+    @Override
+    public double[] getBounds() {
+        return new double[]{px - radius, Double.NEGATIVE_INFINITY, pz - radius, px + radius, Double.POSITIVE_INFINITY, pz + radius};
+    }
+
     @Override
     public List<Block> getBlocks() {
         if (blockCache == null) blockCache = getBlocks0();
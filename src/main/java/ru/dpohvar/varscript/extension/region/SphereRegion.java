@@ -56,6 +56,11 @@ public class SphereRegion extends Region {
         return (l.distance(getCenter()) <= radius);
     }
 
+    @Override
+    public double[] getBounds() {
+        return new double[]{px - radius, py - radius, pz - radius, px + radius, py + radius, pz + radius};
+    }
+
     @Override
     public List<Block> getBlocks() {
         if (blockCache == null) blockCache = getBlocks0();
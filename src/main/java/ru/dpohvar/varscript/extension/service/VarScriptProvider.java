@@ -1,7 +1,6 @@
 package ru.dpohvar.varscript.extension.service;
 
 import groovy.lang.GroovyObjectSupport;
-import groovy.lang.MissingMethodException;
 import org.bukkit.Location;
 import org.bukkit.Server;
 import org.bukkit.World;
@@ -15,30 +14,43 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import ru.dpohvar.varscript.VarScript;
-import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.extension.completer.EntityIdCompleter;
 import ru.dpohvar.varscript.service.VarScriptHook;
-import ru.dpohvar.varscript.utils.PropertySelector;
+import ru.dpohvar.varscript.utils.FileNameIndex;
 import ru.dpohvar.varscript.utils.ScriptProperties;
 import ru.dpohvar.varscript.workspace.CallerScript;
+import ru.dpohvar.varscript.workspace.DynamicModifier;
 import ru.dpohvar.varscript.workspace.Workspace;
 import ru.dpohvar.varscript.workspace.WorkspaceService;
 
-import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 
-public class VarScriptProvider extends GroovyObjectSupport implements VarScriptHook {
+public class VarScriptProvider extends GroovyObjectSupport implements VarScriptHook, DynamicModifier {
 
-    private File scriptDirectory;
-    private File autorunDirectory;
+    private FileNameIndex scriptNames;
+    private FileNameIndex autorunNames;
     private Server server;
+    private final Map<String,Method> providerMethods = new HashMap<String, Method>();
+
+    public VarScriptProvider() {
+        for (Method method : this.getClass().getMethods()) {
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length != 1 || !types[0].equals(ScriptProperties.class)) continue;
+            try {
+                DynamicModifier.class.getMethod(method.getName(), types);
+                continue;
+            } catch (NoSuchMethodException ignored) {}
+            providerMethods.put(method.getName(), method);
+        }
+    }
 
     @Override
     public void onEnable(VarScript plugin) {
         WorkspaceService service = plugin.getWorkspaceService();
-        scriptDirectory = service.getScriptsDirectory();
-        autorunDirectory = service.getAutorunDirectory();
+        scriptNames = service.getScriptNameIndex();
+        autorunNames = service.getAutorunNameIndex();
         server = plugin.getServer();
         plugin.getCommandCompleter().getDelegateCompleters().add(new EntityIdCompleter());
         CallerScript.getDynamicModifiers().add(this);
@@ -48,6 +60,17 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
     public void onDisable(VarScript plugin) {
     }
 
+    @Override
+    public Set<String> getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public Set<String> getMethodNames() {
+        return null;
+    }
+
+    @Override
     public Map<String,Class> getPropertyMapFor(ScriptProperties script){
         Map<String,Class> result = new HashMap<String, Class>();
         for (Workspace ws: script.getGlobal().getWorkspaces()) {
@@ -62,42 +85,34 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
         for (Player player : server.getOnlinePlayers()) {
             result.put(player.getName(), player.getClass());
         }
-        addGroovyFileNamesToMap(scriptDirectory.listFiles(),result, null);
-        addGroovyFileNamesToMap(autorunDirectory.listFiles(),result, Workspace.class);
-        for (Method method : this.getClass().getMethods()) {
-            Class<?>[] types = method.getParameterTypes();
-            if (types.length == 1 && types[0].equals(ScriptProperties.class)) {
-                result.put(method.getName(), method.getReturnType());
-            }
+        for (String name : scriptNames.getNames()) result.put(name, null);
+        for (String name : autorunNames.getNames()) result.put(name, Workspace.class);
+        for (Method method : providerMethods.values()) {
+            result.put(method.getName(), method.getReturnType());
         }
         return result;
     }
 
+    @Override
     public Map<String,Class> getMethodMapFor(ScriptProperties script){
         Map<String,Class> result = new HashMap<String, Class>();
-        addGroovyFileNamesToMap(scriptDirectory.listFiles(),result, null);
+        for (String name : scriptNames.getNames()) result.put(name, null);
         return result;
     }
 
-    private void addGroovyFileNamesToMap(File[] files, Map<String,Class> result, Class value){
-        if (files != null) for (File file : files) {
-            String name = file.getName();
-            if (!name.endsWith(".groovy")) continue;
-            if (name.length() <= 7) continue;
-            result.put(name.substring(0, name.length()-7), value);
-        }
-    }
-
+    @Override
     public Object getPropertyFor(ScriptProperties script, String property) throws Exception {
-        Caller caller = script.getCaller();
-        try {
-            return getMetaClass().invokeMethod(this,property,script);
+        Method providerMethod = providerMethods.get(property);
+        if (providerMethod != null) try {
+            Object result = providerMethod.invoke(this, script);
+            if (result != null) return result;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw (Error) cause;
         }
-        catch (MissingMethodException ignored) {}
-        catch (PropertySelector ignored) {}
-        if (script instanceof CallerScript) {
-            File scriptFile = new File(scriptDirectory, property + ".groovy");
-            if (scriptFile.isFile()) return ((CallerScript) script).runScriptFile(scriptFile);
+        if (script instanceof CallerScript && scriptNames.contains(property)) {
+            return ((CallerScript) script).runScriptFile(scriptNames.getFile(property));
         }
         Player player = server.getPlayerExact(property);
         if (player != null) return player;
@@ -107,25 +122,19 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
         if (world != null) return world;
         Workspace ws = script.getGlobal().getWorkspace(property);
         if (ws != null) return ws;
-        String expectFileName = property+".groovy";
-        File[] autorunFiles = autorunDirectory.listFiles();
-        if (autorunFiles != null) for (File autorunFile : autorunFiles) {
-            if (autorunFile.getName().equals(expectFileName)) {
-                if (autorunFile.isFile()) return script.getGlobal().getOrCreateWorkspace(property);
-            }
-        }
-        throw PropertySelector.next;
+        if (autorunNames.contains(property)) return script.getGlobal().getOrCreateWorkspace(property);
+        return NEXT;
     }
 
+    @Override
     public Object invokeMethodFor(ScriptProperties script, String name, Object[] args) throws Exception {
-        if (script instanceof CallerScript) {
-            File scriptFile = new File(scriptDirectory, name + ".groovy");
-            if (scriptFile.isFile()) return ((CallerScript) script).runScriptFile(scriptFile, args);
+        if (script instanceof CallerScript && scriptNames.contains(name)) {
+            return ((CallerScript) script).runScriptFile(scriptNames.getFile(name), args);
         }
-        throw PropertySelector.next;
+        return NEXT;
     }
 
-    public Block block(ScriptProperties callerScript) throws PropertySelector {
+    public Block block(ScriptProperties callerScript) {
         CommandSender sender = callerScript.getCaller().getSender();
         if (sender instanceof BlockCommandSender) {
             return ((BlockCommandSender) sender).getBlock();
@@ -133,18 +142,18 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
             Block block = ((LivingEntity) sender).getTargetBlock((HashSet<Byte>)null, 128);
             if (block != null && !block.isEmpty()) return block;
         }
-        throw PropertySelector.next;
+        return null;
     }
 
-    public Location here(ScriptProperties callerScript) throws PropertySelector {
+    public Location here(ScriptProperties callerScript) {
         Object me = callerScript.getMe();
         try {
             return (Location) InvokerHelper.getProperty(me, "location");
         } catch (Exception ignored){}
-        throw PropertySelector.next;
+        return null;
     }
 
-    public List<Entity> entities(ScriptProperties callerScript) throws PropertySelector {
+    public List<Entity> entities(ScriptProperties callerScript) {
         List<Entity> result = new ArrayList<Entity>();
         for (World world : server.getWorlds()) {
             result.addAll( world.getEntities() );
@@ -152,11 +161,11 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
         return result;
     }
 
-    public Collection<? extends Player> players(ScriptProperties callerScript) throws PropertySelector {
+    public Collection<? extends Player> players(ScriptProperties callerScript) {
         return server.getOnlinePlayers();
     }
 
-    public List<Item> items(ScriptProperties callerScript) throws PropertySelector {
+    public List<Item> items(ScriptProperties callerScript) {
         List<Item> result = new ArrayList<Item>();
         for (World world : server.getWorlds()) {
             for (Entity entity : world.getEntities()) {
@@ -166,7 +175,7 @@ public class VarScriptProvider extends GroovyObjectSupport implements VarScriptH
         return result;
     }
 
-    public List<World> worlds(ScriptProperties callerScript) throws PropertySelector {
+    public List<World> worlds(ScriptProperties callerScript) {
         return server.getWorlds();
     }
 
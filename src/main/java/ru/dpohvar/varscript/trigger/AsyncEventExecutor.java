@@ -0,0 +1,98 @@
+package ru.dpohvar.varscript.trigger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker pool of asynchronous event handlers with bounded queue.
+ * When the queue is full, task is dropped or the caller waits for free place
+ */
+public class AsyncEventExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    /**
+     * @param threads count of worker threads
+     * @param queueCapacity max count of pending tasks
+     */
+    public AsyncEventExecutor(int threads, int queueCapacity) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive: "+threads);
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "VarScript-event-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        executor = new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                threadFactory, new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queue the task
+     * @param task task
+     * @param block wait for free place if queue is full, otherwise drop the task
+     * @return false if task is dropped
+     */
+    public boolean submit(Runnable task, boolean block){
+        submitted.incrementAndGet();
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (!block || executor.isShutdown()) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        blocked.incrementAndGet();
+        try {
+            while (!executor.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) {
+                if (executor.isShutdown()) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    public int getQueueSize(){
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "queue: " + getQueueSize() + ", submitted: " + submitted + ", dropped: " + dropped + ", blocked: " + blocked;
+    }
+}
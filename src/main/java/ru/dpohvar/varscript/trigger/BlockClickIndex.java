@@ -0,0 +1,125 @@
+package ru.dpohvar.varscript.trigger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.event.*;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.TimedRegisteredListener;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One interact listener for all block click triggers.
+ * Triggers are indexed by world name and packed block coordinates,
+ * listener is registered with first trigger and unregistered with last one
+ */
+public class BlockClickIndex implements Listener, EventExecutor {
+
+    private final Plugin plugin;
+    private final Map<String,Map<Long,BlockClickTrigger[]>> worlds = new ConcurrentHashMap<String, Map<Long, BlockClickTrigger[]>>();
+    private RegisteredListener registeredListener;
+    private int size;
+
+    public BlockClickIndex(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @return x, y and z of block in one long value
+     */
+    static long pack(int x, int y, int z){
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (long) y & 0xFFF;
+    }
+
+    synchronized void add(BlockClickTrigger trigger){
+        Block block = trigger.getBlock();
+        Map<Long,BlockClickTrigger[]> blocks = worlds.get(block.getWorld().getName());
+        if (blocks == null) {
+            blocks = new ConcurrentHashMap<Long, BlockClickTrigger[]>();
+            worlds.put(block.getWorld().getName(), blocks);
+        }
+        Long key = pack(block.getX(), block.getY(), block.getZ());
+        BlockClickTrigger[] current = blocks.get(key);
+        if (current == null) {
+            blocks.put(key, new BlockClickTrigger[]{trigger});
+        } else {
+            BlockClickTrigger[] result = Arrays.copyOf(current, current.length + 1);
+            result[current.length] = trigger;
+            blocks.put(key, result);
+        }
+        if (size++ == 0) register();
+    }
+
+    synchronized void remove(BlockClickTrigger trigger){
+        Block block = trigger.getBlock();
+        Map<Long,BlockClickTrigger[]> blocks = worlds.get(block.getWorld().getName());
+        if (blocks == null) return;
+        Long key = pack(block.getX(), block.getY(), block.getZ());
+        BlockClickTrigger[] current = blocks.get(key);
+        if (current == null) return;
+        int index = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == trigger) index = i;
+        }
+        if (index < 0) return;
+        if (current.length == 1) {
+            blocks.remove(key);
+            if (blocks.isEmpty()) worlds.remove(block.getWorld().getName());
+        } else {
+            BlockClickTrigger[] result = new BlockClickTrigger[current.length - 1];
+            System.arraycopy(current, 0, result, 0, index);
+            System.arraycopy(current, index + 1, result, index, current.length - index - 1);
+            blocks.put(key, result);
+        }
+        if (--size == 0) unregister();
+    }
+
+    private void register(){
+        if (Bukkit.getServer().getPluginManager().useTimings()) {
+            registeredListener = new TimedRegisteredListener(this, this, EventPriority.NORMAL, plugin, false);
+        } else {
+            registeredListener = new RegisteredListener(this, this, EventPriority.NORMAL, plugin, false);
+        }
+        PlayerInteractEvent.getHandlerList().register(registeredListener);
+    }
+
+    private void unregister(){
+        PlayerInteractEvent.getHandlerList().unregister(registeredListener);
+        registeredListener = null;
+    }
+
+    @Override
+    public void execute(Listener listener, Event event) throws EventException {
+        if (!(event instanceof PlayerInteractEvent)) return;
+        PlayerInteractEvent interactEvent = (PlayerInteractEvent) event;
+        Block block = interactEvent.getClickedBlock();
+        if (block == null) return;
+        Map<Long,BlockClickTrigger[]> blocks = worlds.get(block.getWorld().getName());
+        if (blocks == null) return;
+        BlockClickTrigger[] triggers = blocks.get(pack(block.getX(), block.getY(), block.getZ()));
+        if (triggers == null) return;
+        for (BlockClickTrigger trigger : triggers) trigger.handle(interactEvent);
+    }
+
+    /**
+     * @return count of block click triggers
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Map<String,Integer> blocks = new HashMap<String, Integer>();
+        for (Map.Entry<String, Map<Long, BlockClickTrigger[]>> entry : worlds.entrySet()) {
+            blocks.put(entry.getKey(), entry.getValue().size());
+        }
+        return "block clicks: " + size + " triggers, blocks " + blocks;
+    }
+}
@@ -0,0 +1,196 @@
+package ru.dpohvar.varscript.trigger;
+
+import groovy.lang.Closure;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import ru.dpohvar.varscript.workspace.Workspace;
+
+import java.util.*;
+
+/**
+ * Trigger of interaction with one block, indexed by {@link BlockClickIndex}.
+ * Handler params are injected by type: event, player and action
+ */
+public class BlockClickTrigger implements ProfiledTrigger {
+
+    private static final String[] CONTEXT_NAMES = {"event", "player", "action"};
+    private static final List<Class<?>> INJECT = Arrays.<Class<?>>asList(PlayerInteractEvent.class, Player.class, Action.class);
+
+    private volatile boolean stopped;
+    private Closure handler;
+    private volatile HandlerInvoker invoker;
+    private volatile Set<Action> actions = EnumSet.of(Action.RIGHT_CLICK_BLOCK);
+    private volatile boolean cancel = true;
+    private final Workspace workspace;
+    private final Set<Trigger> parentTriggers;
+    private final Block block;
+    private final BlockClickIndex index;
+    private final TriggerStats stats = new TriggerStats();
+
+    public BlockClickTrigger(Workspace workspace, Set<Trigger> parentTriggers, Block block){
+        this.workspace = workspace;
+        this.parentTriggers = parentTriggers;
+        this.block = block;
+        this.index = workspace.getWorkspaceService().getBlockClickIndex();
+        index.add(this);
+        parentTriggers.add(this);
+    }
+
+    /**
+     * Called by index for each interaction with block
+     */
+    void handle(PlayerInteractEvent event){
+        HandlerInvoker invoker = this.invoker;
+        if (invoker == null || stopped || stats.isPaused()) return;
+        if (!actions.contains(event.getAction())) return;
+        if (cancel) event.setCancelled(true);
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            invoker.invoke(event, event.getPlayer(), event.getAction());
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            TriggerStats.record(this, start, error);
+        }
+    }
+
+    public Block getBlock() {
+        return block;
+    }
+
+    /**
+     * @return PlayerInteractEvent, like event trigger which was returned by onClick before
+     */
+    public Class<PlayerInteractEvent> getEventClass() {
+        return PlayerInteractEvent.class;
+    }
+
+    /**
+     * @return NORMAL, priority of interact listener of {@link BlockClickIndex}
+     */
+    public EventPriority getPriority() {
+        return EventPriority.NORMAL;
+    }
+
+    public boolean isIgnoreCancelled() {
+        return false;
+    }
+
+    public Closure getHandler() {
+        return handler;
+    }
+
+    public void setHandler(Closure handler) {
+        Class[] types = handler.getParameterTypes();
+        int[] order = new int[types.length];
+        boolean[] used = new boolean[INJECT.size()];
+        scanClasses: for (int t = 0; t < types.length; t++) {
+            for (int i = 0; i < INJECT.size(); i++) {
+                if (used[i] || !types[t].isAssignableFrom(INJECT.get(i))) continue;
+                used[i] = true;
+                order[t] = i;
+                continue scanClasses;
+            }
+            throw new IllegalArgumentException("Illegal closure argument of type: "+types[t].getName());
+        }
+        this.handler = handler;
+        this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, order);
+    }
+
+    public BlockClickTrigger call(Closure closure){
+        setHandler(closure);
+        return this;
+    }
+
+    public Set<Action> getActions() {
+        return actions;
+    }
+
+    /**
+     * @param actions action, name of action, left, right, physical, any, or collection of them
+     * @return this trigger
+     */
+    public BlockClickTrigger actions(Object actions){
+        Set<Action> result = EnumSet.noneOf(Action.class);
+        for (Object action : EventFilter.flatten(actions)) {
+            if (action instanceof Action) {
+                result.add((Action) action);
+                continue;
+            }
+            String name = action.toString();
+            if (name.equals("left")) result.add(Action.LEFT_CLICK_BLOCK);
+            else if (name.equals("right")) result.add(Action.RIGHT_CLICK_BLOCK);
+            else if (name.equals("physical")) result.add(Action.PHYSICAL);
+            else if (name.equals("any")) result.addAll(EnumSet.of(Action.LEFT_CLICK_BLOCK, Action.RIGHT_CLICK_BLOCK, Action.PHYSICAL));
+            else result.add(Action.valueOf(name.toUpperCase()));
+        }
+        this.actions = result;
+        return this;
+    }
+
+    public boolean isCancel() {
+        return cancel;
+    }
+
+    /**
+     * @param cancel cancel handled interaction, true by default
+     * @return this trigger
+     */
+    public BlockClickTrigger cancel(boolean cancel){
+        this.cancel = cancel;
+        return this;
+    }
+
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis 3 times in a row
+     * @param millis max time of handler call
+     * @return this trigger
+     */
+    public BlockClickTrigger budget(double millis){
+        return budget(millis, 3);
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis several times in a row
+     * @param millis max time of handler call
+     * @param violations count of violations in a row
+     * @return this trigger
+     */
+    public BlockClickTrigger budget(double millis, int violations){
+        stats.setBudget(millis, violations);
+        return this;
+    }
+
+    @Override
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+
+    @Override
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public boolean stop() {
+        if (this.stopped) return false;
+        this.stopped = true;
+        index.remove(this);
+        if (parentTriggers != null) parentTriggers.remove(this);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "click " + block.getWorld().getName() + " " + block.getX() + " " + block.getY() + " " + block.getZ() + " " + actions;
+    }
+}
@@ -1,76 +1,272 @@
 package ru.dpohvar.varscript.trigger;
 
 import groovy.lang.Closure;
-import org.bukkit.Bukkit;
+import groovy.transform.stc.ClosureParams;
+import groovy.transform.stc.FirstParam;
 import org.bukkit.event.*;
-import org.bukkit.plugin.EventExecutor;
-import org.bukkit.plugin.IllegalPluginAccessException;
-import org.bukkit.plugin.RegisteredListener;
-import org.bukkit.plugin.TimedRegisteredListener;
 import ru.dpohvar.varscript.VarScript;
-import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.workspace.Workspace;
 
-import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class BukkitEventTrigger<T extends Event> implements Trigger, Listener, EventExecutor {
+public class BukkitEventTrigger<T extends Event> implements ProfiledTrigger {
+
+    private volatile boolean stopped;
+    private static final String[] CONTEXT_NAMES = {"event"};
+    private static final int[] NO_PARAMS = {};
+    private static final int[] EVENT_PARAM = {0};
 
-    private boolean stopped;
     private Closure handler;
-    private boolean useBinding;
+    private volatile HandlerInvoker invoker;
     private final Workspace workspace;
-    private final Class<?> eventClass;
+    private final Class<? extends T> eventClass;
+    private final EventPriority priority;
+    private final boolean ignoreCancelled;
     private final Set<Trigger> parentTriggers;
-    private final HandlerList handlerList;
-    private final RegisteredListener registeredListener;
+    private final EventDispatcher dispatcher;
+    private volatile EventFilter filter;
+    private volatile AsyncMode asyncMode;
+    private volatile EventOperator operator;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final TriggerStats stats = new TriggerStats();
+    long order;
 
     public BukkitEventTrigger(Workspace workspace, Set<Trigger> parentTriggers, Class<? extends T> eventClass, EventPriority priority, boolean ignoreCancelled){
         this.workspace = workspace;
         this.eventClass = eventClass;
+        this.priority = priority;
+        this.ignoreCancelled = ignoreCancelled;
         this.parentTriggers = parentTriggers;
-        Class<? extends Event> registrationClass = getRegistrationClass(eventClass);
-        handlerList = getHandlerList(registrationClass);
-        boolean useTimings = Bukkit.getServer().getPluginManager().useTimings();
+        this.filter = new EventFilter(eventClass);
         VarScript plugin = workspace.getWorkspaceService().getVarScript();
-        if (useTimings) {
-            registeredListener = new TimedRegisteredListener(this, this, priority, plugin, ignoreCancelled);
-        } else {
-            registeredListener = new RegisteredListener(this, this, priority, plugin, ignoreCancelled);
-        }
-        handlerList.register(registeredListener);
+        dispatcher = EventDispatcher.add(plugin, this, priority, ignoreCancelled);
         parentTriggers.add(this);
     }
 
-    @Override
-    public void execute(Listener listener, Event event) throws EventException {
-        if (handler == null) return;
+    /**
+     * Called by dispatcher for each event of trigger event class
+     */
+    void handle(Event event) {
+        if (invoker == null || stopped || stats.isPaused()) return;
+        if (!filter.accept(event)) return;
+        EventOperator operator = this.operator;
+        if (operator == null) {
+            deliver(event);
+            return;
+        }
         try {
-            if (!eventClass.isInstance(event)) return;
-            if (useBinding) {
-                handler.setProperty("event",event);
-                handler.call();
-            } else {
-                handler.call(event);
+            operator.offer(event);
+        } catch (Throwable t) {
+            workspace.getWorkspaceService().getTriggerErrorReporter().report(this, t);
+        }
+    }
+
+    /**
+     * Call handler for event, which passed filter and operator
+     */
+    void deliver(Event event) {
+        HandlerInvoker invoker = this.invoker;
+        if (invoker == null || stopped || stats.isPaused()) return;
+        AsyncMode asyncMode = this.asyncMode;
+        if (asyncMode != null) {
+            try {
+                handleAsync(invoker, EventSnapshot.capture(event, asyncMode.properties), asyncMode.block);
+            } catch (Throwable t) {
+                workspace.getWorkspaceService().getTriggerErrorReporter().report(this, t);
             }
+            return;
+        }
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            invoker.invoke(event, null, null);
         } catch (Throwable t) {
-            Caller caller = workspace.getWorkspaceService().getVarScript().getCallerService().getConsoleCaller();
-            caller.sendThrowable(t, workspace.getName());
+            error = t;
+        } finally {
+            TriggerStats.record(this, start, error);
         }
     }
 
+    private void handleAsync(final HandlerInvoker invoker, final EventSnapshot snapshot, boolean block){
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (stopped || stats.isPaused()) return;
+                long start = System.nanoTime();
+                Throwable error = null;
+                try {
+                    invoker.invoke(snapshot, null, null);
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    TriggerStats.record(BukkitEventTrigger.this, start, error);
+                }
+            }
+        };
+        AsyncEventExecutor executor = workspace.getWorkspaceService().getAsyncEventExecutor();
+        if (!executor.submit(task, block)) droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Handle first event of each player, skip other events of player for ticks
+     * @param ticks time to skip events
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> throttle(long ticks){
+        return throttle(ticks, null);
+    }
+
+    /**
+     * Handle first event of each key, skip other events of key for ticks
+     * @param ticks time to skip events
+     * @param keyFn closure to get key of event
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> throttle(long ticks, @ClosureParams(FirstParam.FirstGenericType.class) Closure keyFn){
+        if (ticks <= 0) throw new IllegalArgumentException("ticks must be positive: "+ticks);
+        setOperator(new EventOperator.Throttle(this, ticks, keyFn));
+        return this;
+    }
+
+    /**
+     * Handle last event of each player after ticks without events of player
+     * @param ticks quiet time
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> debounce(long ticks){
+        return debounce(ticks, null);
+    }
+
+    /**
+     * Handle last event of each key after ticks without events of key.
+     * Event is handled later, so it can not be cancelled by handler
+     * @param ticks quiet time
+     * @param keyFn closure to get key of event
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> debounce(long ticks, @ClosureParams(FirstParam.FirstGenericType.class) Closure keyFn){
+        if (ticks <= 0) throw new IllegalArgumentException("ticks must be positive: "+ticks);
+        setOperator(new EventOperator.Debounce(this, ticks, keyFn));
+        return this;
+    }
+
+    /**
+     * Handle last event of each player in tick
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> coalescePerTick(){
+        return coalescePerTick(null);
+    }
+
+    /**
+     * Handle last event of each key in tick.
+     * Events are handled in the next tick, so they can not be cancelled by handler
+     * @param keyFn closure to get key of event
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> coalescePerTick(@ClosureParams(FirstParam.FirstGenericType.class) Closure keyFn){
+        setOperator(new EventOperator.Coalesce(this, keyFn));
+        return this;
+    }
+
+    /**
+     * Remove throttle, debounce or coalesce operator
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> unthrottle(){
+        setOperator(null);
+        return this;
+    }
+
+    private void setOperator(EventOperator operator){
+        EventOperator previous = this.operator;
+        this.operator = operator;
+        if (previous != null) previous.clear();
+    }
+
     public Closure getHandler() {
         return handler;
     }
 
     public void setHandler(Closure handler) {
+        if (asyncMode != null) {
+            checkAsyncHandler(handler);
+            this.handler = handler;
+            this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, EVENT_PARAM);
+            return;
+        }
         Class<?>[] types = handler.getParameterTypes();
         if (types.length > 1) throw new IllegalArgumentException("wrong number of closure params: "+types.length);
         if (types.length == 1 && !types[0].isAssignableFrom(eventClass)) {
             throw new IllegalArgumentException("wrong type of closure param: "+types[0]+", expected: "+eventClass);
         }
-        if (types.length == 0) useBinding = true;
         this.handler = handler;
+        this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, types.length == 0 ? NO_PARAMS : EVENT_PARAM);
+    }
+
+    private static void checkAsyncHandler(Closure handler){
+        Class<?>[] types = handler.getParameterTypes();
+        if (types.length != 1 || !types[0].isAssignableFrom(EventSnapshot.class)) {
+            throw new IllegalArgumentException("asynchronous handler expects one param of type "+EventSnapshot.class.getName());
+        }
+    }
+
+    /**
+     * Handle events asynchronously, capturing all properties of event
+     * @return this trigger
+     * @see #async(Map)
+     */
+    public BukkitEventTrigger<T> async(){
+        return async(Collections.emptyMap());
+    }
+
+    /**
+     * Handle events in worker pool of VarScript.
+     * Properties of event are captured in main thread, handler gets read-only {@link EventSnapshot},
+     * so event can not be cancelled or modified by handler.
+     * Options: snapshot - names of captured properties, all properties by default;
+     * overflow - drop or block, what to do when queue of worker pool is full, drop by default
+     * @param options options of async mode
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> async(Map<?,?> options){
+        String[] properties = null;
+        Object snapshot = options.get("snapshot");
+        if (snapshot != null) {
+            Map<String,?> getters = EventSnapshot.getGetters(eventClass);
+            Collection<?> names = EventFilter.flatten(snapshot);
+            properties = new String[names.size()];
+            int i = 0;
+            for (Object name : names) {
+                if (!getters.containsKey(name.toString())) {
+                    throw new IllegalArgumentException("unknown property of " + eventClass.getName() + ": " + name);
+                }
+                properties[i++] = name.toString();
+            }
+        }
+        Object overflow = options.get("overflow");
+        boolean block;
+        if (overflow == null || overflow.toString().equals("drop")) block = false;
+        else if (overflow.toString().equals("block")) block = true;
+        else throw new IllegalArgumentException("unknown overflow policy: " + overflow);
+        if (handler != null) checkAsyncHandler(handler);
+        asyncMode = new AsyncMode(properties, block);
+        return this;
+    }
+
+    public boolean isAsync(){
+        return asyncMode != null;
+    }
+
+    /**
+     * @return count of events dropped in async mode because of full queue
+     */
+    public long getDroppedCount(){
+        return droppedCount.get();
     }
 
     public BukkitEventTrigger<T> call(Closure closure){
@@ -78,65 +274,190 @@ public class BukkitEventTrigger<T extends Event> implements Trigger, Listener, E
         return this;
     }
 
-    public Class getEventClass() {
-        return eventClass;
+    public EventFilter getFilter() {
+        return filter;
     }
 
-    @Override
-    public Workspace getWorkspace() {
-        return workspace;
+    public void setFilter(EventFilter filter) {
+        if (filter.getEventClass() != eventClass) {
+            throw new IllegalArgumentException("filter of " + filter.getEventClass() + ", expected: " + eventClass);
+        }
+        this.filter = filter;
+        dispatcher.update();
     }
 
-    @Override
-    public boolean isStopped() {
-        return stopped;
+    /**
+     * @param worlds world, name of world or collection of them
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> world(Object worlds){
+        setFilter(filter.world(worlds));
+        return this;
     }
 
-    @Override
-    public boolean stop() {
-        if (this.stopped) return false;
-        handlerList.unregister(registeredListener);
-        this.stopped = true;
-        if (parentTriggers != null) parentTriggers.remove(this);
-        return true;
+    /**
+     * @param players player, name, uuid or collection of them
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> player(Object players){
+        setFilter(filter.player(players));
+        return this;
     }
 
-    private static Class<? extends Event> getRegistrationClass(Class<? extends Event> clazz) {
-        try {
-            clazz.getDeclaredMethod("getHandlerList");
-            return clazz;
-        } catch (NoSuchMethodException e) {
-            if (clazz.getSuperclass() != null
-                    && !clazz.getSuperclass().equals(Event.class)
-                    && Event.class.isAssignableFrom(clazz.getSuperclass())) {
-                return getRegistrationClass(clazz.getSuperclass().asSubclass(Event.class));
-            } else {
-                throw new IllegalPluginAccessException("Unable to find handler list for event " + clazz.getName());
+    /**
+     * Handle only moves to another block
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> blockChanged(){
+        setFilter(filter.blockChanged(true));
+        return this;
+    }
+
+    /**
+     * @param materials material, name of material or collection of them
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> material(Object materials){
+        setFilter(filter.material(materials));
+        return this;
+    }
+
+    /**
+     * @param types entity class or collection of classes
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> entity(Object types){
+        setFilter(filter.entity(types));
+        return this;
+    }
+
+    /**
+     * Apply filters by map: world, player, blockChanged, material, entity.
+     * Keys priority, ignoreCancelled, async, snapshot and overflow are options of listen and skipped here
+     * @param params filters
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> filter(Map<?,?> params){
+        EventFilter result = filter;
+        for (Map.Entry<?, ?> entry : params.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            Object value = entry.getValue();
+            if (key.equals("world")) result = result.world(value);
+            else if (key.equals("player")) result = result.player(value);
+            else if (key.equals("blockChanged")) result = result.blockChanged(Boolean.TRUE.equals(value));
+            else if (key.equals("material")) result = result.material(value);
+            else if (key.equals("entity")) result = result.entity(value);
+            else if (!key.equals("priority") && !key.equals("ignoreCancelled") && !key.equals("async")
+                    && !key.equals("snapshot") && !key.equals("overflow")) {
+                throw new IllegalArgumentException("unknown filter: " + key);
             }
         }
+        setFilter(result);
+        return this;
     }
 
-    private static HandlerList getHandlerList(Class<? extends Event> type) {
-        try {
-            Method method = getRegistrationClass(type).getDeclaredMethod("getHandlerList");
-            method.setAccessible(true);
-            return (HandlerList) method.invoke(null);
-        } catch (Exception e) {
-            throw new IllegalPluginAccessException(e.toString());
-        }
+    /**
+     * @param params options of listen
+     * @return value of priority option, NORMAL by default
+     */
+    public static EventPriority getPriority(Map<?,?> params){
+        Object value = params.get("priority");
+        if (value == null) return EventPriority.NORMAL;
+        if (value instanceof EventPriority) return (EventPriority) value;
+        return EventPriority.valueOf(value.toString().toUpperCase());
     }
-}
 
+    /**
+     * @param params options of listen
+     * @return value of ignoreCancelled option, false by default
+     */
+    public static boolean isIgnoreCancelled(Map<?,?> params){
+        return Boolean.TRUE.equals(params.get("ignoreCancelled"));
+    }
 
+    /**
+     * @param params options of listen
+     * @return value of async option, false by default
+     * @throws IllegalArgumentException if snapshot or overflow option is set without async
+     */
+    public static boolean isAsync(Map<?,?> params){
+        boolean async = Boolean.TRUE.equals(params.get("async"));
+        if (!async && (params.containsKey("snapshot") || params.containsKey("overflow"))) {
+            throw new IllegalArgumentException("options snapshot and overflow require async: true");
+        }
+        return async;
+    }
 
+    public Class<? extends T> getEventClass() {
+        return eventClass;
+    }
 
+    public EventPriority getPriority() {
+        return priority;
+    }
 
+    public boolean isIgnoreCancelled() {
+        return ignoreCancelled;
+    }
 
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
 
+    /**
+     * Disable trigger if handler takes more than millis 3 times in a row
+     * @param millis max time of handler call
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> budget(double millis){
+        return budget(millis, 3);
+    }
 
+    /**
+     * Disable trigger if handler takes more than millis several times in a row
+     * @param millis max time of handler call
+     * @param violations count of violations in a row
+     * @return this trigger
+     */
+    public BukkitEventTrigger<T> budget(double millis, int violations){
+        stats.setBudget(millis, violations);
+        return this;
+    }
 
+    @Override
+    public Workspace getWorkspace() {
+        return workspace;
+    }
 
+    @Override
+    public boolean isStopped() {
+        return stopped;
+    }
 
+    @Override
+    public boolean stop() {
+        if (this.stopped) return false;
+        this.stopped = true;
+        dispatcher.remove(this);
+        EventOperator operator = this.operator;
+        if (operator != null) operator.clear();
+        if (parentTriggers != null) parentTriggers.remove(this);
+        return true;
+    }
 
+    @Override
+    public String toString() {
+        return "listen " + eventClass.getSimpleName() + "[" + priority + (asyncMode != null ? ", async" : "") + "]";
+    }
 
+    private static class AsyncMode {
+        final String[] properties;
+        final boolean block;
 
+        AsyncMode(String[] properties, boolean block) {
+            this.properties = properties;
+            this.block = block;
+        }
+    }
+}
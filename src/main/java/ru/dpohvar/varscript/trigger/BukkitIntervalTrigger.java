@@ -4,16 +4,17 @@ import groovy.lang.Closure;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
 import ru.dpohvar.varscript.VarScript;
-import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.util.Set;
 
-public class BukkitIntervalTrigger implements Trigger, Runnable {
+public class BukkitIntervalTrigger implements ProfiledTrigger, Runnable {
 
     private boolean stopped;
+    private static final String[] CONTEXT_NAMES = {"count", "trigger"};
+
     private Closure handler;
-    private int usedArgs;
+    private volatile HandlerInvoker invoker;
     private final Workspace workspace;
     private final Set<Trigger> parentTriggers;
     private final BukkitTask bukkitTask;
@@ -21,6 +22,7 @@ public class BukkitIntervalTrigger implements Trigger, Runnable {
     private final long interval;
     private final boolean sync;
     private int count;
+    private final TriggerStats stats = new TriggerStats();
 
     public BukkitIntervalTrigger(Workspace workspace, Set<Trigger> parentTriggers, long timeout, long interval, boolean sync){
         this.workspace = workspace;
@@ -53,23 +55,18 @@ public class BukkitIntervalTrigger implements Trigger, Runnable {
 
     @Override
     public void run() {
-        if (handler == null) return;
+        HandlerInvoker invoker = this.invoker;
+        if (invoker == null || stats.isPaused()) return;
         int counter = count++;
+        long start = System.nanoTime();
+        Throwable error = null;
         try {
-            if (usedArgs == 0) {
-                handler.setProperty("count", counter);
-                handler.setProperty("trigger", this);
-                handler.call();
-            } else if (usedArgs == 1) {
-                handler.call(counter);
-            } else if (usedArgs == 2) {
-                handler.call(counter, this);
-            }
+            invoker.invoke(counter, this, null);
         } catch (Throwable t) {
-            Caller caller = workspace.getWorkspaceService().getVarScript().getCallerService().getConsoleCaller();
-            caller.sendThrowable(t, workspace.getName());
+            error = t;
+        } finally {
+            TriggerStats.record(this, start, error);
         }
-
     }
 
     public Closure getHandler() {
@@ -92,8 +89,10 @@ public class BukkitIntervalTrigger implements Trigger, Runnable {
             }
             usedArgs = 2;
         }
-        this.usedArgs = usedArgs;
+        int[] order = new int[usedArgs];
+        for (int i = 0; i < usedArgs; i++) order[i] = i;
         this.handler = handler;
+        this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, order);
     }
 
     public BukkitIntervalTrigger call(Closure handler){
@@ -101,6 +100,31 @@ public class BukkitIntervalTrigger implements Trigger, Runnable {
         return this;
     }
 
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis 3 times in a row
+     * @param millis max time of handler call
+     * @return this trigger
+     */
+    public BukkitIntervalTrigger budget(double millis){
+        return budget(millis, 3);
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis several times in a row
+     * @param millis max time of handler call
+     * @param violations count of violations in a row
+     * @return this trigger
+     */
+    public BukkitIntervalTrigger budget(double millis, int violations){
+        stats.setBudget(millis, violations);
+        return this;
+    }
+
     @Override
     public Workspace getWorkspace() {
         return workspace;
@@ -119,6 +143,11 @@ public class BukkitIntervalTrigger implements Trigger, Runnable {
         if (parentTriggers != null) parentTriggers.remove(this);
         return true;
     }
+
+    @Override
+    public String toString() {
+        return "interval " + interval + (sync ? "" : " async");
+    }
 }
 
 
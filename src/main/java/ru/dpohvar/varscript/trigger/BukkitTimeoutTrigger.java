@@ -4,12 +4,11 @@ import groovy.lang.Closure;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
 import ru.dpohvar.varscript.VarScript;
-import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.util.Set;
 
-public class BukkitTimeoutTrigger implements Trigger, Runnable {
+public class BukkitTimeoutTrigger implements ProfiledTrigger, Runnable {
 
     private boolean stopped;
     private Closure handler;
@@ -18,6 +17,7 @@ public class BukkitTimeoutTrigger implements Trigger, Runnable {
     private final BukkitTask bukkitTask;
     private final long timeout;
     private final boolean sync;
+    private final TriggerStats stats = new TriggerStats();
 
     public BukkitTimeoutTrigger(Workspace workspace, Set<Trigger> parentTriggers, long timeout, boolean sync){
         this.workspace = workspace;
@@ -43,11 +43,16 @@ public class BukkitTimeoutTrigger implements Trigger, Runnable {
     @Override
     public void run() {
         stop();
-        if (handler != null) try {
+        if (handler == null) return;
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
             handler.run();
         } catch (Throwable t) {
-            Caller caller = workspace.getWorkspaceService().getVarScript().getCallerService().getConsoleCaller();
-            caller.sendThrowable(t, workspace.getName());
+            error = t;
+        } finally {
+            TriggerStats.record(this, start, error);
+            workspace.addFinishedTrigger(this);
         }
     }
 
@@ -64,6 +69,11 @@ public class BukkitTimeoutTrigger implements Trigger, Runnable {
         return this;
     }
 
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
+
     @Override
     public Workspace getWorkspace() {
         return workspace;
@@ -82,6 +92,11 @@ public class BukkitTimeoutTrigger implements Trigger, Runnable {
         if (parentTriggers != null) parentTriggers.remove(this);
         return true;
     }
+
+    @Override
+    public String toString() {
+        return "timeout " + timeout + (sync ? "" : " async");
+    }
 }
 
 
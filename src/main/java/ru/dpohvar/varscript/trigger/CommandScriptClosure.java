@@ -2,8 +2,12 @@ package ru.dpohvar.varscript.trigger;
 
 import groovy.lang.*;
 import org.bukkit.command.CommandSender;
+import ru.dpohvar.varscript.event.CompileFileEvent;
+import ru.dpohvar.varscript.utils.FileTime;
+import ru.dpohvar.varscript.workspace.CallerScript;
 import ru.dpohvar.varscript.workspace.Workspace;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -11,6 +15,10 @@ public class CommandScriptClosure extends Closure {
 
     private final Workspace workspace;
     private File script;
+    private Class scriptClass;
+    private FileTime scriptFileTime;
+    private long cacheHits;
+    private long cacheMisses;
 
     public CommandScriptClosure(Workspace workspace) {
         super(workspace);
@@ -22,8 +30,10 @@ public class CommandScriptClosure extends Closure {
         return script;
     }
 
-    public void setScript(File script) {
+    public synchronized void setScript(File script) {
         this.script = script;
+        this.scriptClass = null;
+        this.scriptFileTime = null;
     }
 
     @Override
@@ -33,21 +43,63 @@ public class CommandScriptClosure extends Closure {
         String command = (String) arguments[2];
         if (!script.isFile()) throw new IllegalStateException("no file: "+script);
         try{
-            GroovyCodeSource source = new GroovyCodeSource(script);
-            Class scriptClass = workspace.getGroovyClassLoader().parseClass(source, false);
-            if (!Script.class.isAssignableFrom(scriptClass)) {
-                throw new IllegalStateException("not script: "+script);
-            }
+            Class scriptClass = getScriptClass();
+            if (scriptClass == null) return null;
             Binding binding = new Binding();
             binding.setVariable("sender", sender);
             binding.setVariable("args", Arrays.asList(args));
             binding.setVariable("command", command);
-            return workspace.executeScript(null, script, binding);
+            if (!CallerScript.class.isAssignableFrom(scriptClass)) return scriptClass;
+            CallerScript callerScript = (CallerScript) scriptClass.newInstance();
+            return callerScript.initializeScript(workspace, null, binding).run();
         } catch (Throwable throwable){
             throw new GroovyRuntimeException(throwable.getMessage(), throwable);
         }
     }
 
+    /**
+     * Compile event is fired on each call, class is cached by time of file resolved by event
+     * @return class of script, or null if compilation is cancelled
+     */
+    private synchronized Class getScriptClass() throws IOException {
+        CompileFileEvent event = new CompileFileEvent(null, script, workspace);
+        workspace.getWorkspaceService().getVarScript().getServer().getPluginManager().callEvent(event);
+        if (event.isCancelled()) return null;
+        File file = event.getFile();
+        FileTime fileTime = new FileTime(file);
+        if (scriptClass != null && fileTime.equals(scriptFileTime)) {
+            cacheHits++;
+            return scriptClass;
+        }
+        cacheMisses++;
+        Class compiledClass = workspace.compileFile(file);
+        if (!Script.class.isAssignableFrom(compiledClass)) {
+            throw new IllegalStateException("not script: "+file);
+        }
+        scriptClass = compiledClass;
+        scriptFileTime = fileTime;
+        return compiledClass;
+    }
+
+    /**
+     * @return count of calls which used already compiled class
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return count of calls which compiled or reloaded the script
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CommandScriptClosure(" + script + ", cache hits=" + cacheHits + ", misses=" + cacheMisses + ")";
+    }
+
     @Override
     public Class[] getParameterTypes() {
         return new Class[]{CommandSender.class, List.class, String.class};
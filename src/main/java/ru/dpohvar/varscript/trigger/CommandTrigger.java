@@ -4,7 +4,6 @@ import groovy.lang.Closure;
 import org.bukkit.Server;
 import org.bukkit.command.*;
 import org.codehaus.groovy.runtime.DefaultGroovyMethods;
-import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.io.File;
@@ -15,16 +14,19 @@ import static ru.dpohvar.varscript.utils.ReflectionUtils.*;
 
 import static ru.dpohvar.varscript.utils.ReflectionUtils.getRefClass;
 
-public class CommandTrigger extends Command implements Trigger {
+public class CommandTrigger extends Command implements ProfiledTrigger {
 
     private boolean stopped;
+    private static final String[] CONTEXT_NAMES = {"sender", "args", "command"};
+
     private Closure handler;
+    private volatile HandlerInvoker invoker;
     private final Workspace workspace;
     private final Set<Trigger> parentTriggers;
     private final String name;
     private final String fallbackPrefix;
-    private List<Integer> argOrder;
     private final SimpleCommandMap commandMap;
+    private final TriggerStats stats = new TriggerStats();
 
     public CommandTrigger(Workspace workspace, Set<Trigger> parentTriggers, String name, String description, String usage, List<String> aliases){
         super(name, description, usage, aliases);
@@ -49,32 +51,26 @@ public class CommandTrigger extends Command implements Trigger {
 
     @Override
     public boolean execute(CommandSender sender, String command, String[] strings) {
-        if (handler == null) return true;
+        HandlerInvoker invoker = this.invoker;
+        if (invoker == null) return true;
+        if (stats.isPaused()) {
+            sender.sendMessage("command " + workspace.getName() + ":" + name + " is paused after errors");
+            return true;
+        }
         List<String> args = Arrays.asList(strings);
+        long start = System.nanoTime();
+        Throwable error = null;
         try {
-            if (argOrder.isEmpty()) {
-                handler.setProperty("sender",sender);
-                handler.setProperty("command",command);
-                handler.setProperty("args",args);
-                Object result = handler.call();
-                return DefaultGroovyMethods.asBoolean(result);
-            } else {
-                List<Object> passArguments = new ArrayList<Object>();
-                for (Integer t : argOrder) switch (t) {
-                    case 0: passArguments.add(sender); break;
-                    case 1: passArguments.add(args); break;
-                    case 2: passArguments.add(command); break;
-                }
-                Object result = handler.call(passArguments.toArray());
-                return DefaultGroovyMethods.asBoolean(result);
-            }
+            Object result = invoker.invoke(sender, args, command);
+            return DefaultGroovyMethods.asBoolean(result);
         } catch (Throwable e) {
-            Caller caller = workspace.getWorkspaceService().getVarScript().getCallerService().getConsoleCaller();
-            caller.sendThrowable(e, workspace.getName());
+            error = e;
             String className = e.getClass().getName();
             String commandName = workspace.getName()+":"+name;
             sender.sendMessage(className + " on command " + commandName + "\n" + e.getMessage());
             return false;
+        } finally {
+            TriggerStats.record(this, start, error);
         }
     }
 
@@ -105,8 +101,10 @@ public class CommandTrigger extends Command implements Trigger {
             }
             throw new IllegalArgumentException("Illegal closure argument of type: "+type.getName());
         }
-        this.argOrder = argOrder;
+        int[] order = new int[argOrder.size()];
+        for (int i = 0; i < order.length; i++) order[i] = argOrder.get(i);
         this.handler = handler;
+        this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, order);
     }
 
     public CommandTrigger call(Closure closure){
@@ -114,6 +112,31 @@ public class CommandTrigger extends Command implements Trigger {
         return this;
     }
 
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis 3 times in a row
+     * @param millis max time of handler call
+     * @return this trigger
+     */
+    public CommandTrigger budget(double millis){
+        return budget(millis, 3);
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis several times in a row
+     * @param millis max time of handler call
+     * @param violations count of violations in a row
+     * @return this trigger
+     */
+    public CommandTrigger budget(double millis, int violations){
+        stats.setBudget(millis, violations);
+        return this;
+    }
+
     @Override
     public Workspace getWorkspace() {
         return workspace;
@@ -138,6 +161,11 @@ public class CommandTrigger extends Command implements Trigger {
         return true;
     }
 
+    @Override
+    public String toString() {
+        return "command " + name;
+    }
+
     static RefClass<?> cCraftServer = getRefClass("{cb}.CraftServer");
     static RefMethod<SimpleCommandMap> mGetCommandMap = cCraftServer.findMethodByReturnType(SimpleCommandMap.class);
     static RefField<Map> fKnownCommands = getRefClass(SimpleCommandMap.class).findField(Map.class);
@@ -0,0 +1,218 @@
+package ru.dpohvar.varscript.trigger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.event.*;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.TimedRegisteredListener;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One registered bukkit listener for all event triggers with the same event class, priority and ignoreCancelled.
+ * Triggers are kept in copy-on-write array, so adding and stopping of trigger does not rebake handler list.
+ * Triggers with world filter are indexed by world name
+ */
+public class EventDispatcher implements Listener, EventExecutor {
+
+    private static final BukkitEventTrigger[] NO_TRIGGERS = new BukkitEventTrigger[0];
+    private static final Map<List<Object>,EventDispatcher> dispatchers = new HashMap<List<Object>, EventDispatcher>();
+
+    private final List<Object> key;
+    private final Class<? extends Event> eventClass;
+    private final EventPriority priority;
+    private final boolean ignoreCancelled;
+    private final HandlerList handlerList;
+    private final RegisteredListener registeredListener;
+    private volatile Dispatch dispatch = new Dispatch(NO_TRIGGERS);
+    private long order;
+
+    private EventDispatcher(List<Object> key, Plugin plugin, Class<? extends Event> eventClass, EventPriority priority, boolean ignoreCancelled) {
+        this.key = key;
+        this.eventClass = eventClass;
+        this.priority = priority;
+        this.ignoreCancelled = ignoreCancelled;
+        handlerList = getHandlerList(eventClass);
+        if (Bukkit.getServer().getPluginManager().useTimings()) {
+            registeredListener = new TimedRegisteredListener(this, this, priority, plugin, ignoreCancelled);
+        } else {
+            registeredListener = new RegisteredListener(this, this, priority, plugin, ignoreCancelled);
+        }
+    }
+
+    /**
+     * Add trigger to dispatcher, dispatcher is registered with first trigger
+     */
+    static EventDispatcher add(Plugin plugin, BukkitEventTrigger trigger, EventPriority priority, boolean ignoreCancelled){
+        Class<? extends Event> eventClass = trigger.getEventClass();
+        List<Object> key = Arrays.<Object>asList(plugin, eventClass, priority, ignoreCancelled);
+        synchronized (dispatchers) {
+            EventDispatcher dispatcher = dispatchers.get(key);
+            if (dispatcher == null) {
+                dispatcher = new EventDispatcher(key, plugin, eventClass, priority, ignoreCancelled);
+                dispatcher.handlerList.register(dispatcher.registeredListener);
+                dispatchers.put(key, dispatcher);
+            }
+            BukkitEventTrigger[] current = dispatcher.dispatch.triggers;
+            BukkitEventTrigger[] result = Arrays.copyOf(current, current.length + 1);
+            result[current.length] = trigger;
+            trigger.order = dispatcher.order++;
+            dispatcher.dispatch = new Dispatch(result);
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Remove trigger from dispatcher, dispatcher is unregistered with last trigger
+     */
+    void remove(BukkitEventTrigger trigger){
+        synchronized (dispatchers) {
+            BukkitEventTrigger[] current = dispatch.triggers;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == trigger) index = i;
+            }
+            if (index < 0) return;
+            if (current.length == 1) {
+                dispatch = new Dispatch(NO_TRIGGERS);
+                handlerList.unregister(registeredListener);
+                dispatchers.remove(key);
+                return;
+            }
+            BukkitEventTrigger[] result = new BukkitEventTrigger[current.length - 1];
+            System.arraycopy(current, 0, result, 0, index);
+            System.arraycopy(current, index + 1, result, index, current.length - index - 1);
+            dispatch = new Dispatch(result);
+        }
+    }
+
+    /**
+     * Rebuild index after filter of trigger is changed
+     */
+    void update(){
+        synchronized (dispatchers) {
+            dispatch = new Dispatch(dispatch.triggers);
+        }
+    }
+
+    @Override
+    public void execute(Listener listener, Event event) throws EventException {
+        if (!eventClass.isInstance(event)) return;
+        Dispatch dispatch = this.dispatch;
+        if (dispatch.worldTriggers.isEmpty()) {
+            for (BukkitEventTrigger trigger : dispatch.triggers) trigger.handle(event);
+            return;
+        }
+        World world = EventFilter.getWorld(event);
+        BukkitEventTrigger[] worldTriggers = world == null ? null : dispatch.worldTriggers.get(world.getName());
+        BukkitEventTrigger[] anyWorldTriggers = dispatch.anyWorldTriggers;
+        if (worldTriggers == null) {
+            for (BukkitEventTrigger trigger : anyWorldTriggers) trigger.handle(event);
+            return;
+        }
+        int i = 0, j = 0;
+        while (i < anyWorldTriggers.length || j < worldTriggers.length) {
+            if (j == worldTriggers.length || i < anyWorldTriggers.length && anyWorldTriggers[i].order < worldTriggers[j].order) {
+                anyWorldTriggers[i++].handle(event);
+            } else {
+                worldTriggers[j++].handle(event);
+            }
+        }
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    public EventPriority getPriority() {
+        return priority;
+    }
+
+    public boolean isIgnoreCancelled() {
+        return ignoreCancelled;
+    }
+
+    public int getTriggerCount(){
+        return dispatch.triggers.length;
+    }
+
+    /**
+     * @return registered dispatchers
+     */
+    public static List<EventDispatcher> getDispatchers(){
+        synchronized (dispatchers) {
+            return new ArrayList<EventDispatcher>(dispatchers.values());
+        }
+    }
+
+    private static Class<? extends Event> getRegistrationClass(Class<? extends Event> clazz) {
+        try {
+            clazz.getDeclaredMethod("getHandlerList");
+            return clazz;
+        } catch (NoSuchMethodException e) {
+            if (clazz.getSuperclass() != null
+                    && !clazz.getSuperclass().equals(Event.class)
+                    && Event.class.isAssignableFrom(clazz.getSuperclass())) {
+                return getRegistrationClass(clazz.getSuperclass().asSubclass(Event.class));
+            } else {
+                throw new IllegalPluginAccessException("Unable to find handler list for event " + clazz.getName());
+            }
+        }
+    }
+
+    private static HandlerList getHandlerList(Class<? extends Event> type) {
+        try {
+            Method method = getRegistrationClass(type).getDeclaredMethod("getHandlerList");
+            method.setAccessible(true);
+            return (HandlerList) method.invoke(null);
+        } catch (Exception e) {
+            throw new IllegalPluginAccessException(e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return eventClass.getSimpleName() + "[" + priority + (ignoreCancelled ? ", ignoreCancelled" : "") + "]: " + dispatch.triggers.length + " triggers";
+    }
+
+    /**
+     * Immutable snapshot of triggers in order of registration
+     */
+    private static class Dispatch {
+        final BukkitEventTrigger[] triggers;
+        final BukkitEventTrigger[] anyWorldTriggers;
+        final Map<String,BukkitEventTrigger[]> worldTriggers = new HashMap<String, BukkitEventTrigger[]>();
+
+        Dispatch(BukkitEventTrigger[] triggers) {
+            this.triggers = triggers;
+            List<BukkitEventTrigger> anyWorld = new ArrayList<BukkitEventTrigger>();
+            Map<String,List<BukkitEventTrigger>> byWorld = new HashMap<String, List<BukkitEventTrigger>>();
+            for (BukkitEventTrigger trigger : triggers) {
+                Set<String> worlds = trigger.getFilter().getWorlds();
+                if (worlds == null) {
+                    anyWorld.add(trigger);
+                    continue;
+                }
+                for (String world : worlds) {
+                    List<BukkitEventTrigger> list = byWorld.get(world);
+                    if (list == null) byWorld.put(world, list = new ArrayList<BukkitEventTrigger>());
+                    list.add(trigger);
+                }
+            }
+            anyWorldTriggers = anyWorld.toArray(new BukkitEventTrigger[anyWorld.size()]);
+            for (Map.Entry<String, List<BukkitEventTrigger>> entry : byWorld.entrySet()) {
+                List<BukkitEventTrigger> list = entry.getValue();
+                worldTriggers.put(entry.getKey(), list.toArray(new BukkitEventTrigger[list.size()]));
+            }
+        }
+    }
+}
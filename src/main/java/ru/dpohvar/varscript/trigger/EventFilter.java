@@ -0,0 +1,286 @@
+package ru.dpohvar.varscript.trigger;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.hanging.HangingEvent;
+import org.bukkit.event.inventory.InventoryInteractEvent;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.vehicle.VehicleEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.event.world.WorldEvent;
+
+import java.util.*;
+
+/**
+ * Declarative filter of event trigger, checked before handler is called.
+ * Filter is immutable, each filter method returns new filter. World filter is indexed by {@link EventDispatcher}
+ */
+public class EventFilter {
+
+    private final Class<? extends Event> eventClass;
+    private Set<String> worlds;
+    private Set<String> playerNames;
+    private Set<UUID> playerIds;
+    private boolean blockChanged;
+    private Set<Material> materials;
+    private Class[] entityTypes;
+
+    /**
+     * @param eventClass class of filtered events
+     */
+    public EventFilter(Class<? extends Event> eventClass) {
+        this.eventClass = eventClass;
+    }
+
+    private EventFilter copy(){
+        EventFilter result = new EventFilter(eventClass);
+        result.worlds = worlds;
+        result.playerNames = playerNames;
+        result.playerIds = playerIds;
+        result.blockChanged = blockChanged;
+        result.materials = materials;
+        result.entityTypes = entityTypes;
+        return result;
+    }
+
+    /**
+     * @param worlds names of worlds or worlds
+     * @return filter of events in these worlds
+     */
+    public EventFilter world(Object worlds){
+        check(hasWorld(eventClass), "world");
+        Set<String> names = new HashSet<String>();
+        for (Object world : flatten(worlds)) {
+            if (world instanceof World) names.add(((World) world).getName());
+            else names.add(world.toString());
+        }
+        EventFilter result = copy();
+        result.worlds = Collections.unmodifiableSet(names);
+        return result;
+    }
+
+    /**
+     * @param players names, uuids or players
+     * @return filter of events of these players
+     */
+    public EventFilter player(Object players){
+        check(hasPlayer(eventClass), "player");
+        Set<String> names = new HashSet<String>();
+        Set<UUID> ids = new HashSet<UUID>();
+        for (Object player : flatten(players)) {
+            if (player instanceof UUID) ids.add((UUID) player);
+            else if (player instanceof OfflinePlayer) ids.add(((OfflinePlayer) player).getUniqueId());
+            else names.add(player.toString().toLowerCase());
+        }
+        EventFilter result = copy();
+        result.playerNames = names;
+        result.playerIds = ids;
+        return result;
+    }
+
+    /**
+     * @return filter of moves to another block
+     */
+    public EventFilter blockChanged(boolean blockChanged){
+        check(isMove(eventClass), "blockChanged");
+        EventFilter result = copy();
+        result.blockChanged = blockChanged;
+        return result;
+    }
+
+    /**
+     * @param materials materials or names of materials
+     * @return filter of events with block of these materials
+     */
+    public EventFilter material(Object materials){
+        check(hasBlock(eventClass), "material");
+        Set<Material> set = EnumSet.noneOf(Material.class);
+        for (Object material : flatten(materials)) {
+            if (material instanceof Material) {
+                set.add((Material) material);
+            } else {
+                Material value = Material.matchMaterial(material.toString());
+                if (value == null) throw new IllegalArgumentException("unknown material: " + material);
+                set.add(value);
+            }
+        }
+        EventFilter result = copy();
+        result.materials = set;
+        return result;
+    }
+
+    /**
+     * @param types classes of entity
+     * @return filter of events with entity of these classes
+     */
+    public EventFilter entity(Object types){
+        check(hasEntity(eventClass), "entity");
+        List<Class> list = new ArrayList<Class>();
+        for (Object type : flatten(types)) {
+            if (!(type instanceof Class)) throw new IllegalArgumentException("entity filter expects class: " + type);
+            list.add((Class) type);
+        }
+        EventFilter result = copy();
+        result.entityTypes = list.toArray(new Class[list.size()]);
+        return result;
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    /**
+     * @return names of worlds, or null if events of all worlds are accepted
+     */
+    public Set<String> getWorlds() {
+        return worlds;
+    }
+
+    /**
+     * Check all filters except world filter
+     */
+    boolean accept(Event event){
+        if (blockChanged && !isBlockChanged(event)) return false;
+        if (playerNames != null) {
+            Player player = getPlayer(event);
+            if (player == null) return false;
+            if (!playerIds.contains(player.getUniqueId()) && !playerNames.contains(player.getName().toLowerCase())) return false;
+        }
+        if (materials != null) {
+            Block block = getBlock(event);
+            if (block == null || !materials.contains(block.getType())) return false;
+        }
+        if (entityTypes != null) {
+            Entity entity = getEntity(event);
+            if (entity == null) return false;
+            boolean found = false;
+            for (Class type : entityTypes) {
+                if (type.isInstance(entity)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private void check(boolean supported, String filter){
+        if (!supported) throw new IllegalArgumentException(filter + " filter is not supported by " + eventClass.getName());
+    }
+
+    static Collection<?> flatten(Object value){
+        if (value instanceof Collection) return (Collection<?>) value;
+        if (value instanceof Object[]) return Arrays.asList((Object[]) value);
+        return Collections.singletonList(value);
+    }
+
+    static boolean hasWorld(Class<? extends Event> eventClass){
+        return PlayerEvent.class.isAssignableFrom(eventClass)
+                || BlockEvent.class.isAssignableFrom(eventClass)
+                || EntityEvent.class.isAssignableFrom(eventClass)
+                || WorldEvent.class.isAssignableFrom(eventClass)
+                || VehicleEvent.class.isAssignableFrom(eventClass)
+                || HangingEvent.class.isAssignableFrom(eventClass);
+    }
+
+    static World getWorld(Event event){
+        if (event instanceof PlayerEvent) return ((PlayerEvent) event).getPlayer().getWorld();
+        if (event instanceof BlockEvent) return ((BlockEvent) event).getBlock().getWorld();
+        if (event instanceof EntityEvent) return ((EntityEvent) event).getEntity().getWorld();
+        if (event instanceof WorldEvent) return ((WorldEvent) event).getWorld();
+        if (event instanceof VehicleEvent) return ((VehicleEvent) event).getVehicle().getWorld();
+        if (event instanceof HangingEvent) return ((HangingEvent) event).getEntity().getWorld();
+        return null;
+    }
+
+    static boolean hasPlayer(Class<? extends Event> eventClass){
+        return PlayerEvent.class.isAssignableFrom(eventClass)
+                || BlockBreakEvent.class.isAssignableFrom(eventClass)
+                || BlockPlaceEvent.class.isAssignableFrom(eventClass)
+                || SignChangeEvent.class.isAssignableFrom(eventClass)
+                || EntityEvent.class.isAssignableFrom(eventClass)
+                || InventoryInteractEvent.class.isAssignableFrom(eventClass);
+    }
+
+    static Player getPlayer(Event event){
+        if (event instanceof PlayerEvent) return ((PlayerEvent) event).getPlayer();
+        if (event instanceof BlockBreakEvent) return ((BlockBreakEvent) event).getPlayer();
+        if (event instanceof BlockPlaceEvent) return ((BlockPlaceEvent) event).getPlayer();
+        if (event instanceof SignChangeEvent) return ((SignChangeEvent) event).getPlayer();
+        if (event instanceof EntityEvent) {
+            Entity entity = ((EntityEvent) event).getEntity();
+            return entity instanceof Player ? (Player) entity : null;
+        }
+        if (event instanceof InventoryInteractEvent) {
+            HumanEntity human = ((InventoryInteractEvent) event).getWhoClicked();
+            return human instanceof Player ? (Player) human : null;
+        }
+        return null;
+    }
+
+    static boolean hasEntity(Class<? extends Event> eventClass){
+        return PlayerEvent.class.isAssignableFrom(eventClass)
+                || EntityEvent.class.isAssignableFrom(eventClass)
+                || VehicleEvent.class.isAssignableFrom(eventClass)
+                || HangingEvent.class.isAssignableFrom(eventClass);
+    }
+
+    static Entity getEntity(Event event){
+        if (event instanceof PlayerEvent) return ((PlayerEvent) event).getPlayer();
+        if (event instanceof EntityEvent) return ((EntityEvent) event).getEntity();
+        if (event instanceof VehicleEvent) return ((VehicleEvent) event).getVehicle();
+        if (event instanceof HangingEvent) return ((HangingEvent) event).getEntity();
+        return null;
+    }
+
+    static boolean hasBlock(Class<? extends Event> eventClass){
+        return BlockEvent.class.isAssignableFrom(eventClass)
+                || PlayerInteractEvent.class.isAssignableFrom(eventClass);
+    }
+
+    static Block getBlock(Event event){
+        if (event instanceof BlockEvent) return ((BlockEvent) event).getBlock();
+        if (event instanceof PlayerInteractEvent) return ((PlayerInteractEvent) event).getClickedBlock();
+        return null;
+    }
+
+    static boolean isMove(Class<? extends Event> eventClass){
+        return PlayerMoveEvent.class.isAssignableFrom(eventClass)
+                || VehicleMoveEvent.class.isAssignableFrom(eventClass);
+    }
+
+    static boolean isBlockChanged(Event event){
+        if (event instanceof PlayerMoveEvent) {
+            PlayerMoveEvent moveEvent = (PlayerMoveEvent) event;
+            return isBlockChanged(moveEvent.getFrom(), moveEvent.getTo());
+        }
+        if (event instanceof VehicleMoveEvent) {
+            VehicleMoveEvent moveEvent = (VehicleMoveEvent) event;
+            return isBlockChanged(moveEvent.getFrom(), moveEvent.getTo());
+        }
+        return true;
+    }
+
+    private static boolean isBlockChanged(Location from, Location to){
+        if (to == null) return false;
+        return from.getBlockX() != to.getBlockX()
+                || from.getBlockY() != to.getBlockY()
+                || from.getBlockZ() != to.getBlockZ()
+                || from.getWorld() != to.getWorld();
+    }
+}
@@ -0,0 +1,204 @@
+package ru.dpohvar.varscript.trigger;
+
+import groovy.lang.Closure;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+
+/**
+ * Rate operator of event trigger, applied after filter and before handler.
+ * Events are grouped by key: result of key closure, or player of event by default.
+ * Ticks of throttle and debounce are measured as 50 ms of time, delayed events are delivered in main thread
+ */
+abstract class EventOperator {
+
+    private static final String[] CONTEXT_NAMES = {"event"};
+    private static final Object NO_KEY = new Object();
+    static final long TICK_NANOS = 50000000L;
+
+    final BukkitEventTrigger<?> trigger;
+    private final HandlerInvoker keyInvoker;
+
+    EventOperator(BukkitEventTrigger<?> trigger, Closure keyFn) {
+        this.trigger = trigger;
+        if (keyFn == null) {
+            keyInvoker = null;
+        } else {
+            Class<?>[] types = keyFn.getParameterTypes();
+            if (types.length > 1) throw new IllegalArgumentException("wrong number of key closure params: "+types.length);
+            if (types.length == 1 && !types[0].isAssignableFrom(trigger.getEventClass())) {
+                throw new IllegalArgumentException("wrong type of key closure param: "+types[0]+", expected: "+trigger.getEventClass());
+            }
+            keyInvoker = HandlerInvoker.create(keyFn, CONTEXT_NAMES, types.length == 0 ? new int[0] : new int[]{0});
+        }
+    }
+
+    Object getKey(Event event) throws Throwable {
+        if (keyInvoker != null) {
+            Object key = keyInvoker.invoke(event, null, null);
+            return key == null ? NO_KEY : key;
+        }
+        Player player = EventFilter.getPlayer(event);
+        return player == null ? NO_KEY : player.getUniqueId();
+    }
+
+    /**
+     * Accept event, which passed the filter of trigger
+     */
+    abstract void offer(Event event) throws Throwable;
+
+    /**
+     * Forget pending events
+     */
+    abstract void clear();
+
+    Plugin getPlugin(){
+        return trigger.getWorkspace().getWorkspaceService().getVarScript();
+    }
+
+    /**
+     * Deliver first event of key, skip other events of key for ticks
+     */
+    static class Throttle extends EventOperator {
+
+        private final long windowNanos;
+        private final LinkedHashMap<Object,Long> acceptTimes = new LinkedHashMap<Object, Long>();
+
+        Throttle(BukkitEventTrigger<?> trigger, long ticks, Closure keyFn) {
+            super(trigger, keyFn);
+            this.windowNanos = ticks * TICK_NANOS;
+        }
+
+        @Override
+        void offer(Event event) throws Throwable {
+            Object key = getKey(event);
+            long now = System.nanoTime();
+            synchronized (this) {
+                Iterator<Long> iterator = acceptTimes.values().iterator();
+                while (iterator.hasNext() && now - iterator.next() >= windowNanos) iterator.remove();
+                if (acceptTimes.containsKey(key)) return;
+                acceptTimes.put(key, now);
+            }
+            trigger.deliver(event);
+        }
+
+        @Override
+        synchronized void clear() {
+            acceptTimes.clear();
+        }
+    }
+
+    /**
+     * Deliver last event of key when there were no events of key for ticks.
+     * One task is scheduled per key, it is postponed while events of key arrive
+     */
+    static class Debounce extends EventOperator {
+
+        private final long ticks;
+        private final Map<Object,Pending> pending = new HashMap<Object, Pending>();
+
+        Debounce(BukkitEventTrigger<?> trigger, long ticks, Closure keyFn) {
+            super(trigger, keyFn);
+            this.ticks = ticks;
+        }
+
+        @Override
+        void offer(Event event) throws Throwable {
+            Object key = getKey(event);
+            long deadline = System.nanoTime() + ticks * TICK_NANOS;
+            synchronized (this) {
+                Pending current = pending.get(key);
+                if (current != null) {
+                    current.event = event;
+                    current.deadline = deadline;
+                    return;
+                }
+                current = new Pending(key, event, deadline);
+                pending.put(key, current);
+                current.task = getPlugin().getServer().getScheduler().runTaskLater(getPlugin(), current, ticks);
+            }
+        }
+
+        @Override
+        synchronized void clear() {
+            for (Pending p : pending.values()) p.task.cancel();
+            pending.clear();
+        }
+
+        private class Pending implements Runnable {
+            final Object key;
+            Event event;
+            long deadline;
+            BukkitTask task;
+
+            Pending(Object key, Event event, long deadline) {
+                this.key = key;
+                this.event = event;
+                this.deadline = deadline;
+            }
+
+            @Override
+            public void run() {
+                Event event;
+                synchronized (Debounce.this) {
+                    if (pending.get(key) != this) return;
+                    long rest = deadline - System.nanoTime();
+                    if (rest > 0) {
+                        long restTicks = (rest + TICK_NANOS - 1) / TICK_NANOS;
+                        task = getPlugin().getServer().getScheduler().runTaskLater(getPlugin(), this, restTicks);
+                        return;
+                    }
+                    pending.remove(key);
+                    event = this.event;
+                }
+                trigger.deliver(event);
+            }
+        }
+    }
+
+    /**
+     * Deliver last event of each key in the next tick
+     */
+    static class Coalesce extends EventOperator implements Runnable {
+
+        private Map<Object,Event> pending = new LinkedHashMap<Object, Event>();
+        private BukkitTask task;
+
+        Coalesce(BukkitEventTrigger<?> trigger, Closure keyFn) {
+            super(trigger, keyFn);
+        }
+
+        @Override
+        void offer(Event event) throws Throwable {
+            Object key = getKey(event);
+            synchronized (this) {
+                pending.remove(key);
+                pending.put(key, event);
+                if (task == null) {
+                    task = getPlugin().getServer().getScheduler().runTask(getPlugin(), this);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Map<Object,Event> events;
+            synchronized (this) {
+                events = pending;
+                pending = new LinkedHashMap<Object, Event>();
+                task = null;
+            }
+            for (Event event : events.values()) trigger.deliver(event);
+        }
+
+        @Override
+        synchronized void clear() {
+            if (task != null) task.cancel();
+            task = null;
+            pending.clear();
+        }
+    }
+}
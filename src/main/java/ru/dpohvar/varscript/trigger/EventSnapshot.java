@@ -0,0 +1,150 @@
+package ru.dpohvar.varscript.trigger;
+
+import groovy.lang.GroovyObjectSupport;
+import groovy.lang.MissingPropertyException;
+import org.bukkit.Location;
+import org.bukkit.event.Event;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.Vector;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only copy of event properties, taken in main thread for asynchronous handler.
+ * Snapshot can not be cancelled or modified.
+ * Locations, item stacks and vectors are cloned, lists of them are copied;
+ * entities, blocks, worlds and other live objects are shared with server,
+ * handler must not modify them or call Bukkit API on them
+ */
+public class EventSnapshot extends GroovyObjectSupport {
+
+    private static final Map<Class,Map<String,Method>> gettersCache = new ConcurrentHashMap<Class, Map<String, Method>>();
+
+    private final Class<? extends Event> eventClass;
+    private final Map<String,Object> values;
+
+    private EventSnapshot(Class<? extends Event> eventClass, Map<String, Object> values) {
+        this.eventClass = eventClass;
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @param event event
+     * @param properties names of captured properties, or null to capture all properties
+     * @return snapshot of event
+     */
+    static EventSnapshot capture(Event event, String[] properties){
+        Class<? extends Event> eventClass = event.getClass();
+        Map<String,Method> getters = getGetters(eventClass);
+        Map<String,Object> values = new HashMap<String, Object>();
+        try {
+            if (properties == null) {
+                for (Map.Entry<String, Method> entry : getters.entrySet()) {
+                    values.put(entry.getKey(), copy(entry.getValue().invoke(event)));
+                }
+            } else {
+                for (String property : properties) {
+                    Method getter = getters.get(property);
+                    if (getter != null) values.put(property, copy(getter.invoke(event)));
+                }
+            }
+        } catch (InvocationTargetException e) {
+            throw new InvokerInvocationException(e);
+        } catch (IllegalAccessException e) {
+            throw new InvokerInvocationException(e);
+        }
+        return new EventSnapshot(eventClass, values);
+    }
+
+    /**
+     * @return clone of mutable value, or value itself
+     */
+    private static Object copy(Object value){
+        if (value instanceof Location) return ((Location) value).clone();
+        if (value instanceof ItemStack) return ((ItemStack) value).clone();
+        if (value instanceof Vector) return ((Vector) value).clone();
+        if (value instanceof List) {
+            List<Object> result = new ArrayList<Object>(((List<?>) value).size());
+            for (Object element : (List<?>) value) result.add(copy(element));
+            return Collections.unmodifiableList(result);
+        }
+        return value;
+    }
+
+    /**
+     * @param eventClass class of event
+     * @return getters of event properties by property name
+     */
+    static Map<String,Method> getGetters(Class<? extends Event> eventClass){
+        Map<String,Method> getters = gettersCache.get(eventClass);
+        if (getters != null) return getters;
+        getters = new HashMap<String, Method>();
+        for (Method method : eventClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0) continue;
+            String name = method.getName();
+            String property;
+            if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class) {
+                property = name.substring(3);
+            } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+                property = name.substring(2);
+            } else {
+                continue;
+            }
+            property = Character.toLowerCase(property.charAt(0)) + property.substring(1);
+            if (property.equals("class") || property.equals("handlers")) continue;
+            method.setAccessible(true);
+            getters.put(property, method);
+        }
+        getters = Collections.unmodifiableMap(getters);
+        gettersCache.put(eventClass, getters);
+        return getters;
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    /**
+     * @return captured properties
+     */
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    @Override
+    public Object getProperty(String property) {
+        Object value = values.get(property);
+        if (value != null || values.containsKey(property)) return value;
+        if (property.equals("eventClass")) return eventClass;
+        if (property.equals("values")) return values;
+        throw new MissingPropertyException("property " + property + " is not captured in snapshot of " + eventClass.getName(), property, eventClass);
+    }
+
+    @Override
+    public void setProperty(String property, Object newValue) {
+        throw new UnsupportedOperationException("event is handled asynchronously, property " + property + " can not be changed");
+    }
+
+    public Object methodMissing(String name, Object args) {
+        if (args instanceof Object[] && ((Object[]) args).length == 0) {
+            String property = null;
+            if (name.startsWith("get") && name.length() > 3) property = name.substring(3);
+            else if (name.startsWith("is") && name.length() > 2) property = name.substring(2);
+            if (property != null) {
+                property = Character.toLowerCase(property.charAt(0)) + property.substring(1);
+                if (values.containsKey(property)) return values.get(property);
+            }
+        }
+        throw new UnsupportedOperationException("event is handled asynchronously, method " + name + " is not available");
+    }
+
+    @Override
+    public String toString() {
+        return eventClass.getSimpleName() + values;
+    }
+}
@@ -0,0 +1,198 @@
+package ru.dpohvar.varscript.trigger;
+
+import groovy.lang.Closure;
+import groovy.lang.GroovyObjectSupport;
+import org.bukkit.Bukkit;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+
+/**
+ * Invoker of trigger handler, built once when handler is set.
+ * Trigger passes up to three context values, invoker passes them to closure params in required order.
+ * Closure without params gets context values as properties: it is called in copy,
+ * which owner resolves context names and delegates other names to the original owner.
+ * Copy for main thread is kept by invoker, other threads take copies from small pool of invoker
+ */
+abstract class HandlerInvoker {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * @param closure handler
+     * @param names names of context values
+     * @param order indexes of context values passed as closure params,
+     *              empty array to pass context values as properties
+     * @return invoker of handler
+     */
+    static HandlerInvoker create(Closure closure, String[] names, int[] order){
+        if (order.length == 0) return new ContextInvoker(closure, names);
+        return new ParamsInvoker(closure, order);
+    }
+
+    /**
+     * Invoke the handler, unused context values may be null
+     */
+    abstract Object invoke(Object a, Object b, Object c) throws Throwable;
+
+    /**
+     * @return public doCall method of compiled closure class, or null if closure should be called by {@link Closure#call}
+     */
+    private static Method findDoCall(Closure closure){
+        Class<?> closureClass = closure.getClass();
+        try {
+            if (closureClass.getMethod("call").getDeclaringClass() != Closure.class) return null;
+            if (closureClass.getMethod("call", Object.class).getDeclaringClass() != Closure.class) return null;
+            if (closureClass.getMethod("call", Object[].class).getDeclaringClass() != Closure.class) return null;
+            Method method = closureClass.getMethod("doCall", closure.getParameterTypes());
+            String className = method.getDeclaringClass().getName();
+            if (className.startsWith("groovy.") || className.startsWith("org.codehaus.groovy.")) return null;
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    private static Object call(Closure closure, Method doCall, Object[] args) throws Throwable {
+        if (doCall == null) switch (args.length) {
+            case 0: return closure.call();
+            case 1: return closure.call(args[0]);
+            default: return closure.call(args);
+        }
+        try {
+            return doCall.invoke(closure, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ParamsInvoker extends HandlerInvoker {
+
+        private final Closure closure;
+        private final Method doCall;
+        private final int[] order;
+
+        ParamsInvoker(Closure closure, int[] order) {
+            this.closure = closure;
+            this.doCall = findDoCall(closure);
+            this.order = order;
+        }
+
+        @Override
+        Object invoke(Object a, Object b, Object c) throws Throwable {
+            Object[] args = new Object[order.length];
+            for (int i = 0; i < args.length; i++) switch (order[i]) {
+                case 0: args[i] = a; break;
+                case 1: args[i] = b; break;
+                case 2: args[i] = c; break;
+            }
+            return call(closure, doCall, args);
+        }
+    }
+
+    private static class ContextInvoker extends HandlerInvoker {
+
+        private static final int POOL_SIZE = 8;
+
+        private final Closure closure;
+        private final String[] names;
+        private final Method doCall;
+        private final ArrayDeque<Context> pool = new ArrayDeque<Context>(POOL_SIZE);
+        private Context mainContext;
+
+        ContextInvoker(Closure closure, String[] names) {
+            this.closure = closure;
+            this.names = names;
+            this.doCall = findDoCall(closure);
+        }
+
+        @Override
+        Object invoke(Object a, Object b, Object c) throws Throwable {
+            if (Bukkit.isPrimaryThread()) {
+                Context context = mainContext;
+                if (context == null) mainContext = context = new Context(closure, names, doCall);
+                return invoke(context, a, b, c);
+            }
+            Context context;
+            synchronized (pool) {
+                context = pool.poll();
+            }
+            if (context == null) context = new Context(closure, names, doCall);
+            try {
+                return invoke(context, a, b, c);
+            } finally {
+                synchronized (pool) {
+                    if (pool.size() < POOL_SIZE) pool.push(context);
+                }
+            }
+        }
+
+        private static Object invoke(Context context, Object a, Object b, Object c) throws Throwable {
+            Object[] values = context.values;
+            Object[] previous = context.depth++ == 0 ? null : values.clone();
+            switch (values.length) {
+                case 3: values[2] = c;
+                case 2: values[1] = b;
+                case 1: values[0] = a;
+            }
+            try {
+                return call(context.closure, context.doCall, NO_ARGS);
+            } finally {
+                context.depth--;
+                if (previous != null) System.arraycopy(previous, 0, values, 0, values.length);
+                else for (int i = 0; i < values.length; i++) values[i] = null;
+            }
+        }
+    }
+
+    private static class Context extends GroovyObjectSupport {
+
+        private final Object owner;
+        private final String[] names;
+        private final Object[] values;
+        private final Closure closure;
+        private final Method doCall;
+        private int depth;
+
+        /**
+         * @param doCall doCall method of closure class, rehydrated copy has the same class
+         */
+        Context(Closure closure, String[] names, Method doCall) {
+            this.owner = closure.getOwner();
+            this.names = names;
+            this.values = new Object[names.length];
+            this.closure = closure.rehydrate(closure.getDelegate(), this, closure.getThisObject());
+            this.closure.setResolveStrategy(closure.getResolveStrategy());
+            this.doCall = doCall;
+        }
+
+        @Override
+        public Object getProperty(String property) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(property)) return values[i];
+            }
+            return InvokerHelper.getProperty(owner, property);
+        }
+
+        @Override
+        public void setProperty(String property, Object newValue) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(property)) {
+                    values[i] = newValue;
+                    return;
+                }
+            }
+            InvokerHelper.setProperty(owner, property, newValue);
+        }
+
+        @Override
+        public Object invokeMethod(String name, Object args) {
+            return InvokerHelper.invokeMethod(owner, name, args);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ru.dpohvar.varscript.trigger;
+
+/**
+ * Trigger with handler latency accounting
+ */
+public interface ProfiledTrigger extends Trigger {
+
+    TriggerStats getStats();
+}
@@ -0,0 +1,272 @@
+package ru.dpohvar.varscript.trigger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.*;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.TimedRegisteredListener;
+import ru.dpohvar.varscript.extension.region.Region;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One move listener for all region triggers.
+ * Triggers are indexed by world name and chunks covered by bounds of region,
+ * regions without bounds or with too many chunks are checked in whole world.
+ * Regions are checked only when player moves to another block.
+ * Regions of each player are stored as array of triggers, which player is inside of,
+ * it is accessed only in main thread.
+ * Triggers are handled at normal priority, so handler can cancel the move;
+ * regions of player are changed only if the move is not cancelled
+ */
+public class RegionIndex implements Listener, EventExecutor {
+
+    private static final int MAX_CHUNKS = 1024;
+    private static final RegionTrigger[] EMPTY = new RegionTrigger[0];
+
+    private final Plugin plugin;
+    private final Map<String,Map<Long,RegionTrigger[]>> worldChunks = new ConcurrentHashMap<String, Map<Long, RegionTrigger[]>>();
+    private final Map<String,RegionTrigger[]> worldRegions = new ConcurrentHashMap<String, RegionTrigger[]>();
+    private final Map<UUID,RegionTrigger[]> inside = new HashMap<UUID, RegionTrigger[]>();
+    private RegisteredListener registeredListener;
+    private int size;
+
+    public RegionIndex(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @return x and z of chunk in one long value
+     */
+    static long pack(int chunkX, int chunkZ){
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return keys of chunks covered by bounds of region, or null to check region in whole world
+     */
+    static long[] getChunks(Region region){
+        double[] bounds = region.getBounds();
+        if (bounds == null) return null;
+        for (double bound : bounds) if (Double.isNaN(bound)) return null;
+        if (Double.isInfinite(bounds[0]) || Double.isInfinite(bounds[2])) return null;
+        if (Double.isInfinite(bounds[3]) || Double.isInfinite(bounds[5])) return null;
+        long x1 = (long) Math.floor(bounds[0]) >> 4, z1 = (long) Math.floor(bounds[2]) >> 4;
+        long x2 = (long) Math.floor(bounds[3]) >> 4, z2 = (long) Math.floor(bounds[5]) >> 4;
+        if (x2 - x1 >= MAX_CHUNKS || z2 - z1 >= MAX_CHUNKS) return null;
+        if ((x2 - x1 + 1) * (z2 - z1 + 1) > MAX_CHUNKS) return null;
+        long[] chunks = new long[(int) ((x2 - x1 + 1) * (z2 - z1 + 1))];
+        int i = 0;
+        for (long x = x1; x <= x2; x++) for (long z = z1; z <= z2; z++) {
+            chunks[i++] = pack((int) x, (int) z);
+        }
+        return chunks;
+    }
+
+    synchronized void add(final RegionTrigger trigger){
+        String worldName = trigger.getRegion().getWorld().getName();
+        long[] chunks = getChunks(trigger.getRegion());
+        trigger.chunks = chunks;
+        if (chunks == null) {
+            worldRegions.put(worldName, append(worldRegions.get(worldName), trigger));
+        } else {
+            Map<Long,RegionTrigger[]> map = worldChunks.get(worldName);
+            if (map == null) {
+                map = new ConcurrentHashMap<Long, RegionTrigger[]>();
+                worldChunks.put(worldName, map);
+            }
+            for (long chunk : chunks) map.put(chunk, append(map.get(chunk), trigger));
+        }
+        if (size++ == 0) register();
+        if (Bukkit.isPrimaryThread()) {
+            addPlayersInside(trigger);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    addPlayersInside(trigger);
+                }
+            });
+        }
+    }
+
+    synchronized void remove(final RegionTrigger trigger){
+        String worldName = trigger.getRegion().getWorld().getName();
+        long[] chunks = trigger.chunks;
+        if (chunks == null) {
+            RegionTrigger[] result = remove(worldRegions.get(worldName), trigger);
+            if (result == null) worldRegions.remove(worldName);
+            else worldRegions.put(worldName, result);
+        } else {
+            Map<Long,RegionTrigger[]> map = worldChunks.get(worldName);
+            if (map == null) return;
+            for (long chunk : chunks) {
+                RegionTrigger[] result = remove(map.get(chunk), trigger);
+                if (result == null) map.remove(chunk);
+                else map.put(chunk, result);
+            }
+            if (map.isEmpty()) worldChunks.remove(worldName);
+        }
+        if (--size == 0) unregister();
+        if (Bukkit.isPrimaryThread()) {
+            removePlayersInside(trigger);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    removePlayersInside(trigger);
+                }
+            });
+        }
+    }
+
+    /**
+     * Players, which are inside region when trigger is created, do not enter it
+     */
+    private void addPlayersInside(RegionTrigger trigger){
+        if (trigger.isStopped()) return;
+        Region region = trigger.getRegion();
+        for (Player player : region.getWorld().getPlayers()) {
+            if (!region.contains(player.getLocation())) continue;
+            inside.put(player.getUniqueId(), append(inside.get(player.getUniqueId()), trigger));
+        }
+    }
+
+    /**
+     * Stopped trigger is removed from regions of players, so it does not hold its workspace
+     */
+    private void removePlayersInside(RegionTrigger trigger){
+        Iterator<Map.Entry<UUID, RegionTrigger[]>> iterator = inside.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, RegionTrigger[]> entry = iterator.next();
+            RegionTrigger[] result = remove(entry.getValue(), trigger);
+            if (result == null) iterator.remove();
+            else entry.setValue(result);
+        }
+    }
+
+    private static RegionTrigger[] append(RegionTrigger[] triggers, RegionTrigger trigger){
+        if (triggers == null) return new RegionTrigger[]{trigger};
+        RegionTrigger[] result = Arrays.copyOf(triggers, triggers.length + 1);
+        result[triggers.length] = trigger;
+        return result;
+    }
+
+    /**
+     * @return triggers without trigger, or null if nothing left
+     */
+    private static RegionTrigger[] remove(RegionTrigger[] triggers, RegionTrigger trigger){
+        if (triggers == null) return null;
+        int index = indexOf(triggers, triggers.length, trigger);
+        if (index < 0) return triggers;
+        if (triggers.length == 1) return null;
+        RegionTrigger[] result = new RegionTrigger[triggers.length - 1];
+        System.arraycopy(triggers, 0, result, 0, index);
+        System.arraycopy(triggers, index + 1, result, index, triggers.length - index - 1);
+        return result;
+    }
+
+    private static int indexOf(RegionTrigger[] triggers, int length, RegionTrigger trigger){
+        for (int i = 0; i < length; i++) if (triggers[i] == trigger) return i;
+        return -1;
+    }
+
+    private void register(){
+        if (Bukkit.getServer().getPluginManager().useTimings()) {
+            registeredListener = new TimedRegisteredListener(this, this, EventPriority.NORMAL, plugin, true);
+        } else {
+            registeredListener = new RegisteredListener(this, this, EventPriority.NORMAL, plugin, true);
+        }
+        PlayerMoveEvent.getHandlerList().register(registeredListener);
+        PlayerTeleportEvent.getHandlerList().register(registeredListener);
+        PlayerQuitEvent.getHandlerList().register(registeredListener);
+    }
+
+    private void unregister(){
+        PlayerMoveEvent.getHandlerList().unregister(registeredListener);
+        PlayerTeleportEvent.getHandlerList().unregister(registeredListener);
+        PlayerQuitEvent.getHandlerList().unregister(registeredListener);
+        registeredListener = null;
+    }
+
+    @Override
+    public void execute(Listener listener, Event event) throws EventException {
+        if (event instanceof PlayerQuitEvent) {
+            inside.remove(((PlayerQuitEvent) event).getPlayer().getUniqueId());
+            return;
+        }
+        if (!(event instanceof PlayerMoveEvent)) return;
+        PlayerMoveEvent moveEvent = (PlayerMoveEvent) event;
+        Location from = moveEvent.getFrom();
+        Location to = moveEvent.getTo();
+        if (to == null) return;
+        if (from.getWorld() == to.getWorld() && from.getBlockX() == to.getBlockX()
+                && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ()) return;
+        UUID playerId = moveEvent.getPlayer().getUniqueId();
+        RegionTrigger[] previous = inside.get(playerId);
+        String worldName = to.getWorld().getName();
+        RegionTrigger[] regions = worldRegions.get(worldName);
+        RegionTrigger[] local = null;
+        Map<Long,RegionTrigger[]> chunks = worldChunks.get(worldName);
+        if (chunks != null) local = chunks.get(pack(to.getBlockX() >> 4, to.getBlockZ() >> 4));
+        if (previous == null && regions == null && local == null) return;
+        if (regions == null) regions = EMPTY;
+        if (local == null) local = EMPTY;
+        if (previous == null) previous = EMPTY;
+
+        RegionTrigger[] current = new RegionTrigger[regions.length + local.length];
+        int count = 0;
+        for (RegionTrigger trigger : regions) {
+            if (!trigger.isStopped() && trigger.getRegion().contains(to)) current[count++] = trigger;
+        }
+        for (RegionTrigger trigger : local) {
+            if (!trigger.isStopped() && trigger.getRegion().contains(to)) current[count++] = trigger;
+        }
+
+        List<RegionTrigger> handle = null;
+        boolean changed = count != previous.length;
+        for (RegionTrigger trigger : previous) {
+            if (indexOf(current, count, trigger) >= 0) continue;
+            changed = true;
+            if (trigger.isEnter() || trigger.isStopped()) continue;
+            if (handle == null) handle = new ArrayList<RegionTrigger>();
+            handle.add(trigger);
+        }
+        for (int i = 0; i < count; i++) {
+            RegionTrigger trigger = current[i];
+            if (indexOf(previous, previous.length, trigger) >= 0) continue;
+            changed = true;
+            if (!trigger.isEnter()) continue;
+            if (handle == null) handle = new ArrayList<RegionTrigger>();
+            handle.add(trigger);
+        }
+        if (handle != null) for (RegionTrigger trigger : handle) trigger.handle(moveEvent);
+        if (changed && !moveEvent.isCancelled()) {
+            if (count == 0) inside.remove(playerId);
+            else inside.put(playerId, count == current.length ? current : Arrays.copyOf(current, count));
+        }
+    }
+
+    /**
+     * @return count of region triggers
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Map<String,Integer> chunks = new HashMap<String, Integer>();
+        for (Map.Entry<String, Map<Long, RegionTrigger[]>> entry : worldChunks.entrySet()) {
+            chunks.put(entry.getKey(), entry.getValue().size());
+        }
+        return "regions: " + size + " triggers, chunks " + chunks;
+    }
+}
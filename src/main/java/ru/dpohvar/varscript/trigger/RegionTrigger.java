@@ -0,0 +1,143 @@
+package ru.dpohvar.varscript.trigger;
+
+import groovy.lang.Closure;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerMoveEvent;
+import ru.dpohvar.varscript.extension.region.Region;
+import ru.dpohvar.varscript.workspace.Workspace;
+
+import java.util.*;
+
+/**
+ * Trigger of player entering or leaving region, indexed by {@link RegionIndex}.
+ * Handler params are injected by type: event, player and region
+ */
+public class RegionTrigger implements ProfiledTrigger {
+
+    private static final String[] CONTEXT_NAMES = {"event", "player", "region"};
+    private static final List<Class<?>> INJECT = Arrays.<Class<?>>asList(PlayerMoveEvent.class, Player.class, Region.class);
+
+    private volatile boolean stopped;
+    private Closure handler;
+    private volatile HandlerInvoker invoker;
+    private final Workspace workspace;
+    private final Set<Trigger> parentTriggers;
+    private final Region region;
+    private final boolean enter;
+    private final RegionIndex index;
+    private final TriggerStats stats = new TriggerStats();
+    long[] chunks;
+
+    public RegionTrigger(Workspace workspace, Set<Trigger> parentTriggers, Region region, boolean enter){
+        this.workspace = workspace;
+        this.parentTriggers = parentTriggers;
+        this.region = region;
+        this.enter = enter;
+        this.index = workspace.getWorkspaceService().getRegionIndex();
+        index.add(this);
+        parentTriggers.add(this);
+    }
+
+    /**
+     * Called by index when player enters or leaves region
+     */
+    void handle(PlayerMoveEvent event){
+        HandlerInvoker invoker = this.invoker;
+        if (invoker == null || stopped || stats.isPaused()) return;
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            invoker.invoke(event, event.getPlayer(), region);
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            TriggerStats.record(this, start, error);
+        }
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    /**
+     * @return true if trigger handles entering region, false if leaving
+     */
+    public boolean isEnter() {
+        return enter;
+    }
+
+    public Closure getHandler() {
+        return handler;
+    }
+
+    public void setHandler(Closure handler) {
+        Class[] types = handler.getParameterTypes();
+        int[] order = new int[types.length];
+        boolean[] used = new boolean[INJECT.size()];
+        scanClasses: for (int t = 0; t < types.length; t++) {
+            for (int i = 0; i < INJECT.size(); i++) {
+                if (used[i] || !types[t].isAssignableFrom(INJECT.get(i))) continue;
+                used[i] = true;
+                order[t] = i;
+                continue scanClasses;
+            }
+            throw new IllegalArgumentException("Illegal closure argument of type: "+types[t].getName());
+        }
+        this.handler = handler;
+        this.invoker = HandlerInvoker.create(handler, CONTEXT_NAMES, order);
+    }
+
+    public RegionTrigger call(Closure closure){
+        setHandler(closure);
+        return this;
+    }
+
+    @Override
+    public TriggerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis 3 times in a row
+     * @param millis max time of handler call
+     * @return this trigger
+     */
+    public RegionTrigger budget(double millis){
+        return budget(millis, 3);
+    }
+
+    /**
+     * Disable trigger if handler takes more than millis several times in a row
+     * @param millis max time of handler call
+     * @param violations count of violations in a row
+     * @return this trigger
+     */
+    public RegionTrigger budget(double millis, int violations){
+        stats.setBudget(millis, violations);
+        return this;
+    }
+
+    @Override
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+
+    @Override
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public boolean stop() {
+        if (this.stopped) return false;
+        this.stopped = true;
+        index.remove(this);
+        if (parentTriggers != null) parentTriggers.remove(this);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return (enter ? "enter " : "leave ") + region;
+    }
+}
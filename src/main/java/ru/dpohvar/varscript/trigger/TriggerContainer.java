@@ -3,13 +3,16 @@ package ru.dpohvar.varscript.trigger;
 import groovy.lang.Closure;
 import groovy.transform.stc.ClosureParams;
 import groovy.transform.stc.FirstParam;
+import groovy.transform.stc.SecondParam;
 import groovy.transform.stc.SimpleType;
+import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.extension.region.Region;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.util.*;
@@ -108,6 +111,29 @@ public class TriggerContainer implements Trigger, TriggerGenerator {
         return listen(eventClass, priority, ic).call(handler);
     }
 
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass){
+        boolean async = BukkitEventTrigger.isAsync(params);
+        BukkitEventTrigger<T> trigger = listen(eventClass, BukkitEventTrigger.getPriority(params), BukkitEventTrigger.isIgnoreCancelled(params));
+        try {
+            trigger.filter(params);
+            if (async) trigger.async(params);
+            return trigger;
+        } catch (RuntimeException e) {
+            trigger.stop();
+            throw e;
+        }
+    }
+
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass, @ClosureParams(SecondParam.FirstGenericType.class) Closure handler){
+        BukkitEventTrigger<T> trigger = listen(params, eventClass);
+        try {
+            return trigger.call(handler);
+        } catch (RuntimeException e) {
+            trigger.stop();
+            throw e;
+        }
+    }
+
     public BukkitEventTrigger listen(Closure closure){
         return listen(EventPriority.NORMAL, closure);
     }
@@ -189,6 +215,44 @@ public class TriggerContainer implements Trigger, TriggerGenerator {
         return interval(interval, interval, true, handler);
     }
 
+    @Override
+    public BlockClickTrigger click(Block block){
+        if (disabled) throw new IllegalStateException("container is disabled");
+        return new BlockClickTrigger(workspace, triggers, block);
+    }
+
+    @Override
+    public BlockClickTrigger click(Block block, Closure handler){
+        return click(block).call(handler);
+    }
+
+    @Override
+    public BlockClickTrigger click(Block block, Object actions, Closure handler){
+        return click(block).actions(actions).call(handler);
+    }
+
+    @Override
+    public RegionTrigger enter(Region region){
+        if (disabled) throw new IllegalStateException("container is disabled");
+        return new RegionTrigger(workspace, triggers, region, true);
+    }
+
+    @Override
+    public RegionTrigger enter(Region region, Closure handler){
+        return enter(region).call(handler);
+    }
+
+    @Override
+    public RegionTrigger leave(Region region){
+        if (disabled) throw new IllegalStateException("container is disabled");
+        return new RegionTrigger(workspace, triggers, region, false);
+    }
+
+    @Override
+    public RegionTrigger leave(Region region, Closure handler){
+        return leave(region).call(handler);
+    }
+
     @Override
     public StopHookTrigger stopHook(){
         return new StopHookTrigger(workspace, triggers);
@@ -0,0 +1,157 @@
+package ru.dpohvar.varscript.trigger;
+
+import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.workspace.Workspace;
+
+import java.util.*;
+
+/**
+ * Aggregated report of trigger exceptions.
+ * First exception of each trigger and stack trace is always sent to console,
+ * repeats are counted and summarized once per interval.
+ * When too many exceptions are counted, oldest exception without repeats is forgotten
+ * to count the new one, if all of them repeat, repeats of the oldest are summarized without trigger.
+ * Profiled trigger is paused after too many failures in a row
+ */
+public class TriggerErrorReporter {
+
+    private static final int MAX_ENTRIES = 256;
+    private static final int FINGERPRINT_FRAMES = 8;
+
+    private final Caller caller;
+    private final long interval;
+    private final int pauseAfter;
+    private final long pauseTime;
+    private final Timer timer;
+    private Map<List<Object>,Entry> entries = new LinkedHashMap<List<Object>, Entry>();
+    private long skipped;
+
+    /**
+     * @param caller console caller
+     * @param interval interval of summary in milliseconds
+     * @param pauseAfter count of failures in a row to pause trigger, 0 to never pause
+     * @param pauseTime time of pause in milliseconds
+     */
+    public TriggerErrorReporter(Caller caller, long interval, int pauseAfter, long pauseTime) {
+        this.caller = caller;
+        this.interval = interval;
+        this.pauseAfter = pauseAfter;
+        this.pauseTime = pauseTime;
+        timer = new Timer("VarScript-trigger-errors", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Report exception of trigger handler
+     * @param trigger trigger
+     * @param error exception
+     */
+    public void report(Trigger trigger, Throwable error){
+        List<Object> key = Arrays.<Object>asList(trigger, fingerprint(error));
+        boolean first = false;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.count++;
+            } else {
+                if (entries.size() >= MAX_ENTRIES) evictEntry();
+                entries.put(key, new Entry(trigger, error));
+                first = true;
+            }
+        }
+        Workspace workspace = trigger.getWorkspace();
+        if (first) caller.sendThrowable(error, workspace.getName());
+        if (pauseAfter <= 0 || !(trigger instanceof ProfiledTrigger)) return;
+        TriggerStats stats = ((ProfiledTrigger) trigger).getStats();
+        if (stats.getFailuresInRow() < pauseAfter || stats.isPaused()) return;
+        stats.pause(pauseTime);
+        caller.sendErrorMessage("trigger " + trigger + " is paused for " + pauseTime / 1000
+                + " s after " + stats.getFailuresInRow() + " failures in a row", workspace.getName());
+    }
+
+    /**
+     * Remove oldest entry without repeats since last summary, or entry of stopped trigger.
+     * If all entries have repeats, oldest entry is removed and its repeats are summarized without trigger
+     */
+    private void evictEntry(){
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.count != 0 && !entry.trigger.isStopped()) continue;
+            iterator.remove();
+            return;
+        }
+        iterator = entries.values().iterator();
+        skipped += iterator.next().count;
+        iterator.remove();
+    }
+
+    /**
+     * Send summary of repeated exceptions.
+     * Exceptions without repeats are forgotten, next exception with same stack trace will be sent in full
+     */
+    public void flush(){
+        List<Entry> repeated = new ArrayList<Entry>();
+        long skipped;
+        synchronized (this) {
+            Map<List<Object>,Entry> active = new LinkedHashMap<List<Object>, Entry>();
+            for (Map.Entry<List<Object>, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.count == 0 || entry.trigger.isStopped()) continue;
+                repeated.add(new Entry(entry.trigger, entry.error, entry.count));
+                entry.count = 0;
+                active.put(e.getKey(), entry);
+            }
+            entries = active;
+            skipped = this.skipped;
+            this.skipped = 0;
+        }
+        for (Entry entry : repeated) {
+            caller.sendErrorMessage("trigger " + entry.trigger + ": " + entry.count + " more "
+                    + entry.error + " in last " + interval / 1000 + " s", entry.trigger.getWorkspace().getName());
+        }
+        if (skipped > 0) {
+            caller.sendErrorMessage(skipped + " more trigger errors in last " + interval / 1000 + " s", null);
+        }
+    }
+
+    public void shutdown(){
+        timer.cancel();
+        flush();
+    }
+
+    private static String fingerprint(Throwable error){
+        StringBuilder builder = new StringBuilder();
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            builder.append(t.getClass().getName());
+            StackTraceElement[] trace = t.getStackTrace();
+            for (int i = 0; i < trace.length && i < FINGERPRINT_FRAMES; i++) {
+                builder.append(';').append(trace[i].getClassName()).append('.').append(trace[i].getMethodName())
+                        .append(':').append(trace[i].getLineNumber());
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static class Entry {
+        final Trigger trigger;
+        final Throwable error;
+        long count;
+
+        Entry(Trigger trigger, Throwable error) {
+            this(trigger, error, 0);
+        }
+
+        Entry(Trigger trigger, Throwable error, long count) {
+            this.trigger = trigger;
+            this.error = error;
+            this.count = count;
+        }
+    }
+}
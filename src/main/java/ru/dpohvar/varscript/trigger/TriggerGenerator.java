@@ -3,12 +3,16 @@ package ru.dpohvar.varscript.trigger;
 import groovy.lang.Closure;
 import groovy.transform.stc.ClosureParams;
 import groovy.transform.stc.FirstParam;
+import groovy.transform.stc.SecondParam;
 import groovy.transform.stc.SimpleType;
+import org.bukkit.block.Block;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
+import ru.dpohvar.varscript.extension.region.Region;
 import ru.dpohvar.varscript.workspace.Workspace;
 
 import java.util.List;
+import java.util.Map;
 
 public interface TriggerGenerator {
 
@@ -34,6 +38,10 @@ public interface TriggerGenerator {
 
     public <T extends Event> BukkitEventTrigger<T> listen(Class<T> eventClass, EventPriority priority, boolean ic, @ClosureParams(FirstParam.FirstGenericType.class) Closure handler);
 
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass);
+
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass, @ClosureParams(SecondParam.FirstGenericType.class) Closure handler);
+
     public BukkitEventTrigger listen(Closure closure);
 
     public BukkitEventTrigger listen(EventPriority priority, Closure closure);
@@ -60,6 +68,20 @@ public interface TriggerGenerator {
 
     public BukkitIntervalTrigger interval(long interval, Closure handler);
 
+    public BlockClickTrigger click(Block block);
+
+    public BlockClickTrigger click(Block block, Closure handler);
+
+    public BlockClickTrigger click(Block block, Object actions, Closure handler);
+
+    public RegionTrigger enter(Region region);
+
+    public RegionTrigger enter(Region region, Closure handler);
+
+    public RegionTrigger leave(Region region);
+
+    public RegionTrigger leave(Region region, Closure handler);
+
     public StopHookTrigger stopHook();
 
     public StopHookTrigger stopHook(Closure closure);
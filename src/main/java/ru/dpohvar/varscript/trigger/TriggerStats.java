@@ -0,0 +1,183 @@
+package ru.dpohvar.varscript.trigger;
+
+import org.bukkit.Bukkit;
+import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.workspace.Workspace;
+
+/**
+ * Call count, total and max time, latency histogram and failures of trigger handler.
+ * Trigger with budget is disabled when handler exceeds budget several times in a row,
+ * trigger is paused by {@link TriggerErrorReporter} when handler fails several times in a row
+ */
+public class TriggerStats {
+
+    private static final long[] BUCKET_BOUNDS = {100000L, 1000000L, 5000000L, 10000000L, 50000000L};
+    private static final String[] BUCKET_NAMES = {"<0.1ms", "<1ms", "<5ms", "<10ms", "<50ms", ">=50ms"};
+
+    private long calls;
+    private long totalNanos;
+    private long maxNanos;
+    private final long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+    private long budgetNanos;
+    private int budgetViolations;
+    private int violationsInRow;
+    private long violations;
+    private long failures;
+    private int failuresInRow;
+    private volatile long pausedUntil;
+    private volatile boolean disabled;
+
+    /**
+     * @param nanos time of handler call
+     * @param failed handler call is failed
+     * @return true if budget is exceeded too many times in a row
+     */
+    public synchronized boolean record(long nanos, boolean failed){
+        calls++;
+        if (failed) {
+            failures++;
+            failuresInRow++;
+        } else {
+            failuresInRow = 0;
+        }
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && nanos >= BUCKET_BOUNDS[bucket]) bucket++;
+        histogram[bucket]++;
+        if (budgetNanos <= 0) return false;
+        if (nanos <= budgetNanos) {
+            violationsInRow = 0;
+            return false;
+        }
+        violations++;
+        return ++violationsInRow >= budgetViolations;
+    }
+
+    /**
+     * @param millis max time of handler call, 0 to remove budget
+     * @param violations count of budget violations in a row to disable trigger
+     */
+    public synchronized void setBudget(double millis, int violations){
+        if (violations <= 0) throw new IllegalArgumentException("violations must be positive: "+violations);
+        this.budgetNanos = (long) (millis * 1000000);
+        this.budgetViolations = violations;
+        this.violationsInRow = 0;
+    }
+
+    public synchronized double getBudget(){
+        return budgetNanos / 1000000.0;
+    }
+
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public synchronized long getViolations() {
+        return violations;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized int getFailuresInRow() {
+        return failuresInRow;
+    }
+
+    /**
+     * Skip calls of handler for a while
+     * @param millis time of pause
+     */
+    public void pause(long millis){
+        pausedUntil = System.currentTimeMillis() + millis;
+    }
+
+    /**
+     * @return true if handler should not be called now,
+     * also true if trigger is over budget and waits to be stopped in main thread
+     */
+    public boolean isPaused(){
+        if (disabled) return true;
+        long pausedUntil = this.pausedUntil;
+        return pausedUntil != 0 && System.currentTimeMillis() < pausedUntil;
+    }
+
+    /**
+     * @return count of calls in each latency bucket: &lt;0.1ms, &lt;1ms, &lt;5ms, &lt;10ms, &lt;50ms, &gt;=50ms
+     */
+    public synchronized long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public synchronized void reset(){
+        calls = totalNanos = maxNanos = violations = failures = 0;
+        violationsInRow = failuresInRow = 0;
+        pausedUntil = 0;
+        for (int i = 0; i < histogram.length; i++) histogram[i] = 0;
+    }
+
+    /**
+     * Record handler call, report exception and disable trigger if it is over budget.
+     * Trigger is stopped in main thread, stats of disabled trigger are kept in {@link Workspace#getFinishedTriggers()}
+     * @param trigger profiled trigger
+     * @param startNanos time of handler start
+     * @param error exception of handler, or null
+     */
+    static void record(final ProfiledTrigger trigger, long startNanos, Throwable error){
+        TriggerStats stats = trigger.getStats();
+        boolean overBudget = stats.record(System.nanoTime() - startNanos, error != null);
+        Workspace workspace = trigger.getWorkspace();
+        if (error != null) workspace.getWorkspaceService().getTriggerErrorReporter().report(trigger, error);
+        if (!overBudget) return;
+        if (Bukkit.isPrimaryThread()) {
+            disable(trigger);
+            return;
+        }
+        stats.disabled = true;
+        Bukkit.getScheduler().runTask(workspace.getWorkspaceService().getVarScript(), new Runnable() {
+            @Override
+            public void run() {
+                disable(trigger);
+            }
+        });
+    }
+
+    /**
+     * Stop trigger over budget, called in main thread
+     */
+    private static void disable(ProfiledTrigger trigger){
+        if (!trigger.stop()) return;
+        TriggerStats stats = trigger.getStats();
+        Workspace workspace = trigger.getWorkspace();
+        workspace.addFinishedTrigger(trigger);
+        Caller caller = workspace.getWorkspaceService().getVarScript().getCallerService().getConsoleCaller();
+        caller.sendErrorMessage("trigger " + trigger + " is disabled, it exceeded budget of "
+                + stats.getBudget() + " ms " + stats.budgetViolations + " times in a row", workspace.getName());
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("calls: ").append(calls);
+        if (calls == 0) return builder.toString();
+        builder.append(String.format(", avg: %.3f ms, max: %.3f ms", totalNanos / 1000000.0 / calls, maxNanos / 1000000.0));
+        if (budgetNanos > 0) builder.append(", budget: ").append(getBudget()).append(" ms, violations: ").append(violations);
+        if (failures > 0) builder.append(", failures: ").append(failures);
+        if (isPaused()) builder.append(", paused");
+        builder.append(" [");
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) builder.append(' ');
+            builder.append(BUCKET_NAMES[i]).append(':').append(histogram[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,148 @@
+package ru.dpohvar.varscript.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polling watcher of directory trees.
+ * Every detected change increments generation counter and is passed to listeners
+ */
+public class DirectoryWatcher {
+
+    public interface Listener {
+        void onChange(DirectoryWatcher watcher, Set<File> created, Set<File> modified, Set<File> deleted);
+    }
+
+    private final List<File> roots = new ArrayList<File>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile long generation;
+    private Map<File,Stamp> snapshot;
+    private ScheduledExecutorService executor;
+
+    public DirectoryWatcher(Collection<File> roots) {
+        for (File root : roots) {
+            File canonicalRoot;
+            try {
+                canonicalRoot = root.getCanonicalFile();
+            } catch (IOException e) {
+                canonicalRoot = root.getAbsoluteFile();
+            }
+            if (!this.roots.contains(canonicalRoot)) this.roots.add(canonicalRoot);
+        }
+        snapshot = takeSnapshot();
+    }
+
+    public List<File> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * @return counter of detected changes
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    public synchronized void start(long periodMillis){
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "VarScript-watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop(){
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Compare directories with last snapshot and notify listeners
+     * @return true if changes detected
+     */
+    public synchronized boolean scan(){
+        Map<File,Stamp> current = takeSnapshot();
+        Set<File> created = new LinkedHashSet<File>();
+        Set<File> modified = new LinkedHashSet<File>();
+        Set<File> deleted = new LinkedHashSet<File>();
+        for (Map.Entry<File, Stamp> entry : current.entrySet()) {
+            Stamp old = snapshot.get(entry.getKey());
+            if (old == null) created.add(entry.getKey());
+            else if (!old.equals(entry.getValue())) modified.add(entry.getKey());
+        }
+        for (File file : snapshot.keySet()) {
+            if (!current.containsKey(file)) deleted.add(file);
+        }
+        snapshot = current;
+        if (created.isEmpty() && modified.isEmpty() && deleted.isEmpty()) return false;
+        generation++;
+        for (Listener listener : listeners) try {
+            listener.onChange(this, created, modified, deleted);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private Map<File,Stamp> takeSnapshot(){
+        Map<File,Stamp> result = new HashMap<File, Stamp>();
+        for (File root : roots) collect(root, result);
+        return result;
+    }
+
+    private static void collect(File directory, Map<File,Stamp> result){
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (result.containsKey(file)) continue;
+            boolean isDirectory = file.isDirectory();
+            result.put(file, new Stamp(isDirectory ? -1 : file.lastModified(), isDirectory ? -1 : file.length()));
+            if (isDirectory) collect(file, result);
+        }
+    }
+
+    private static class Stamp {
+        final long time;
+        final long length;
+
+        Stamp(long time, long length) {
+            this.time = time;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Stamp && ((Stamp) obj).time == time && ((Stamp) obj).length == length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(time ^ (time >>> 32)) ^ (int) length;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.dpohvar.varscript.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of files with extension in one directory by name without extension.
+ * Index is updated by directory watcher, names which are not found on disk are remembered as missing
+ * until the file is created or the name is not requested for a while
+ */
+public class FileNameIndex implements DirectoryWatcher.Listener {
+
+    private final File directory;
+    private final String extension;
+    private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final LruCache<String,Boolean> missingNames;
+
+    /**
+     * @param directory indexed directory
+     * @param extension extension of indexed files, with dot
+     * @param missingCapacity max count of remembered missing names
+     * @param missingIdleTimeout time in milliseconds to remember missing name after last request
+     */
+    public FileNameIndex(File directory, String extension, int missingCapacity, long missingIdleTimeout) {
+        File canonicalDirectory;
+        try {
+            canonicalDirectory = directory.getCanonicalFile();
+        } catch (IOException e) {
+            canonicalDirectory = directory.getAbsoluteFile();
+        }
+        this.directory = canonicalDirectory;
+        this.extension = extension;
+        this.missingNames = new LruCache<String, Boolean>(missingCapacity, missingIdleTimeout);
+        refresh();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Read names of all files in directory
+     */
+    public void refresh(){
+        Set<String> current = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) {
+            String name = getIndexName(file);
+            if (name != null && file.isFile()) current.add(name);
+        }
+        names.retainAll(current);
+        names.addAll(current);
+        missingNames.clear();
+    }
+
+    /**
+     * @param name name of file without extension
+     * @return true if file exists
+     */
+    public boolean contains(String name){
+        if (names.contains(name)) return true;
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) return false;
+        if (missingNames.get(name) != null) return false;
+        if (getFile(name).isFile()) {
+            names.add(name);
+            return true;
+        }
+        missingNames.put(name, Boolean.TRUE);
+        return false;
+    }
+
+    /**
+     * @param name name of file without extension
+     * @return file with this name, may not exist
+     */
+    public File getFile(String name){
+        return new File(directory, name + extension);
+    }
+
+    /**
+     * @return names of all indexed files
+     */
+    public Set<String> getNames(){
+        return Collections.unmodifiableSet(names);
+    }
+
+    @Override
+    public void onChange(DirectoryWatcher watcher, Set<File> created, Set<File> modified, Set<File> deleted) {
+        for (File file : created) {
+            String name = getIndexName(file);
+            if (name == null || !file.isFile()) continue;
+            names.add(name);
+            missingNames.remove(name);
+        }
+        for (File file : deleted) {
+            String name = getIndexName(file);
+            if (name != null) names.remove(name);
+        }
+    }
+
+    private String getIndexName(File file){
+        if (!directory.equals(file.getParentFile())) return null;
+        String fileName = file.getName();
+        if (!fileName.endsWith(extension) || fileName.length() <= extension.length()) return null;
+        return fileName.substring(0, fileName.length() - extension.length());
+    }
+
+    @Override
+    public String toString() {
+        return directory + ": " + names.size() + " names, " + missingNames.size() + " missing";
+    }
+}
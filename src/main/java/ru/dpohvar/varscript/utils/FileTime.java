@@ -1,31 +1,41 @@
 package ru.dpohvar.varscript.utils;
 
 import java.io.File;
+import java.io.IOException;
 
 public class FileTime {
 
     public final File file;
-    public final Long time;
+    public final long time;
+    public final long length;
 
     public FileTime(File file) {
-        this.file = file;
-        this.time = file.lastModified();
+        File canonicalFile;
+        try {
+            canonicalFile = file.getCanonicalFile();
+        } catch (IOException e) {
+            canonicalFile = file.getAbsoluteFile();
+        }
+        this.file = canonicalFile;
+        this.time = canonicalFile.lastModified();
+        this.length = canonicalFile.length();
     }
 
     @Override
     public int hashCode() {
-        return file.hashCode() ^ time.hashCode();
+        return file.hashCode() ^ (int)(time ^ (time >>> 32)) ^ (int) length;
     }
 
     @Override
     public boolean equals(Object obj) {
         return obj instanceof FileTime &&
                 ((FileTime) obj).file.equals(file) &&
-                ((FileTime) obj).time.equals(time);
+                ((FileTime) obj).time == time &&
+                ((FileTime) obj).length == length;
     }
 
     @Override
     public String toString() {
-        return file + ":" + time;
+        return file + ":" + time + ":" + length;
     }
 }
@@ -0,0 +1,142 @@
+package ru.dpohvar.varscript.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache with least-recently-used and idle-time eviction.
+ * Values are strongly held until evicted.
+ */
+public class LruCache<K,V> {
+
+    public interface Filter<K,V> {
+        boolean accept(K key, V value);
+    }
+
+    private final int capacity;
+    private final long idleTimeout;
+    private final LinkedHashMap<K,Node<V>> map = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity max count of entries
+     * @param idleTimeout time in milliseconds after last access when entry is evicted, 0 to disable
+     */
+    public LruCache(int capacity, long idleTimeout) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: "+capacity);
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized V get(K key){
+        long now = System.currentTimeMillis();
+        Node<V> node = map.get(key);
+        if (node != null && isExpired(node, now)) {
+            map.remove(key);
+            evictions++;
+            node = null;
+        }
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        node.accessTime = now;
+        return node.value;
+    }
+
+    public synchronized V put(K key, V value){
+        long now = System.currentTimeMillis();
+        Node<V> old = map.put(key, new Node<V>(value, now));
+        evictExpired(now);
+        Iterator<Node<V>> iterator = map.values().iterator();
+        while (map.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+        return old == null ? null : old.value;
+    }
+
+    public synchronized V remove(K key){
+        Node<V> old = map.remove(key);
+        if (old == null) return null;
+        evictions++;
+        return old.value;
+    }
+
+    public synchronized int removeAll(Filter<K,V> filter){
+        int count = 0;
+        Iterator<Map.Entry<K, Node<V>>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Node<V>> entry = iterator.next();
+            if (!filter.accept(entry.getKey(), entry.getValue().value)) continue;
+            iterator.remove();
+            count++;
+        }
+        evictions += count;
+        return count;
+    }
+
+    public synchronized void clear(){
+        evictions += map.size();
+        map.clear();
+    }
+
+    public synchronized int size(){
+        evictExpired(System.currentTimeMillis());
+        return map.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private boolean isExpired(Node<V> node, long now){
+        return idleTimeout > 0 && now - node.accessTime > idleTimeout;
+    }
+
+    private void evictExpired(long now){
+        if (idleTimeout <= 0) return;
+        Iterator<Node<V>> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isExpired(iterator.next(), now)) break;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + map.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions;
+    }
+
+    private static class Node<V> {
+        final V value;
+        long accessTime;
+
+        Node(V value, long accessTime) {
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.ClassNodeResolver;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.ProcessingUnit;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent on-disk cache of compiled script classes.
+ * Entries are keyed by source path and content hash and stored in a folder
+ * named by fingerprint of compiler configuration
+ */
+public class BytecodeCache {
+
+    private static final int FORMAT_VERSION = 3;
+    private static final String ENTRY_EXTENSION = ".class-cache";
+
+    private static final Method setClassCacheEntry;
+    static {
+        try {
+            setClassCacheEntry = GroovyClassLoader.class.getDeclaredMethod("setClassCacheEntry", Class.class);
+            setClassCacheEntry.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<String, File> classSources = new ConcurrentHashMap<String, File>();
+    private volatile GroovyClassLoader sharedLoader;
+    private volatile File sharedDirectory;
+
+    /**
+     * Create cache which only compiles sources and does not store them
+     */
+    public BytecodeCache() {
+        this.directory = null;
+    }
+
+    public BytecodeCache(File cacheDirectory, String fingerprint) {
+        this.directory = new File(cacheDirectory, fingerprint);
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) for (File file : files) {
+            if (file.isDirectory() && !file.getName().equals(fingerprint)) deleteDir(file);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("can not create cache directory: "+directory);
+        }
+    }
+
+    /**
+     * @return directory of cache entries, or null if cache is not persistent
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isPersistent() {
+        return directory != null;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Sources of shared directory are not compiled into cache entries,
+     * they are compiled once by shared loader and resolved as loaded classes
+     * @param loader loader of shared sources, parent of loaders which use them
+     * @param directory directory of shared sources
+     */
+    public void setSharedSources(GroovyClassLoader loader, File directory){
+        File canonicalDirectory;
+        try {
+            canonicalDirectory = directory.getCanonicalFile();
+        } catch (IOException e) {
+            canonicalDirectory = directory.getAbsoluteFile();
+        }
+        this.sharedDirectory = canonicalDirectory;
+        this.sharedLoader = loader;
+    }
+
+    public void clear(){
+        if (directory == null) return;
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) deleteDir(file);
+    }
+
+    /**
+     * Load class of the script file from cache or compile it.
+     * @param loader class loader to resolve script dependencies
+     * @param configuration compiler configuration
+     * @param file source file
+     * @return main class of the script
+     */
+    public Class parseClass(GroovyClassLoader loader, CompilerConfiguration configuration, File file)
+            throws IOException, CompilationFailedException {
+        return parseClass(loader, configuration, file, null, null);
+    }
+
+    /**
+     * Load class of the script file from cache or compile it.
+     * @param loader class loader to resolve script dependencies
+     * @param configuration compiler configuration
+     * @param file source file
+     * @param variant name of configuration variant, or null
+     * @param report report to fill with statistics and dependencies, or null
+     * @return main class of the script
+     */
+    public Class parseClass(GroovyClassLoader loader, CompilerConfiguration configuration, File file, String variant, CompileReport report)
+            throws IOException, CompilationFailedException {
+        return parseClasses(loader, configuration, Collections.singletonList(file), variant, report).get(file);
+    }
+
+    /**
+     * Load classes of the source files from cache or compile them together as one compilation unit.
+     * @param loader class loader to resolve dependencies
+     * @param configuration compiler configuration
+     * @param files source files
+     * @param variant name of configuration variant, or null
+     * @param report report to fill with statistics and dependencies, or null
+     * @return main class of each source file
+     */
+    public Map<File,Class> parseClasses(GroovyClassLoader loader, CompilerConfiguration configuration, List<File> files, String variant, CompileReport report)
+            throws IOException, CompilationFailedException {
+        byte[][] keyParts = new byte[files.size() * 2 + 1][];
+        for (int i = 0; i < files.size(); i++) {
+            keyParts[i * 2] = files.get(i).getCanonicalPath().getBytes("UTF-8");
+            keyParts[i * 2 + 1] = readFile(files.get(i));
+        }
+        keyParts[keyParts.length - 1] = variant == null ? new byte[0] : variant.getBytes("UTF-8");
+        File entryFile = directory == null ? null : new File(directory, hash(keyParts) + ENTRY_EXTENSION);
+        Entry entry = entryFile == null ? null : readEntry(entryFile);
+        boolean hit = entry != null;
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = compile(loader, configuration, files, report);
+            if (entryFile != null && entry.cacheable) writeEntry(entryFile, entry);
+        }
+        if (report != null) {
+            report.setCached(hit);
+            report.setClassCount(entry.classes.size());
+            long bytecodeSize = 0;
+            for (byte[] bytes : entry.classes.values()) bytecodeSize += bytes.length;
+            report.setBytecodeSize(bytecodeSize);
+            for (Dependency dependency : entry.dependencies) {
+                report.getDependencies().add(new File(dependency.path));
+            }
+        }
+        for (Map.Entry<String, String> classSource : entry.classSources.entrySet()) {
+            classSources.put(classSource.getKey(), new File(classSource.getValue()));
+        }
+        Map<String, Class> classes = entry.define(loader);
+        Map<File, Class> result = new LinkedHashMap<File, Class>();
+        for (int i = 0; i < files.size(); i++) {
+            result.put(files.get(i), classes.get(entry.mainClasses.get(i)));
+        }
+        return result;
+    }
+
+    private Entry compile(final GroovyClassLoader loader, CompilerConfiguration configuration, List<File> files, CompileReport report)
+            throws CompilationFailedException {
+        CompilationUnit unit = new CompilationUnit(configuration, null, loader);
+        final Set<File> loadedDependencies = new LinkedHashSet<File>();
+        unit.setClassNodeResolver(new ClassNodeResolver() {
+            @Override
+            public LookupResult findClassNode(String name, CompilationUnit compilationUnit) {
+                Class sharedClass = loadSharedClass(name);
+                if (sharedClass != null) return new LookupResult(null, ClassHelper.make(sharedClass));
+                return super.findClassNode(name, compilationUnit);
+            }
+
+            @Override
+            public LookupResult resolveName(String name, CompilationUnit compilationUnit) {
+                LookupResult result = super.resolveName(name, compilationUnit);
+                if (result != null && result.isClassNode()) {
+                    File source = getClassSource(loader, result.getClassNode());
+                    if (source != null) loadedDependencies.add(source);
+                }
+                return result;
+            }
+        });
+        PhaseTimer timer = report == null ? null : new PhaseTimer(report.getPhaseTimes());
+        if (timer != null) unit.setProgressCallback(timer);
+        List<SourceUnit> mainSources = new ArrayList<SourceUnit>();
+        for (File file : files) mainSources.add(unit.addSource(file));
+        unit.compile(Phases.CLASS_GENERATION);
+        if (timer != null) timer.finish();
+        Entry entry = new Entry();
+        for (SourceUnit mainSource : mainSources) {
+            entry.mainClasses.add(mainSource.getAST().getClasses().get(0).getName());
+        }
+        for (Object generated : unit.getClasses()) {
+            GroovyClass groovyClass = (GroovyClass) generated;
+            entry.classes.put(groovyClass.getName(), groovyClass.getBytes());
+        }
+        Set<File> dependencies = new LinkedHashSet<File>();
+        Iterator<SourceUnit> iterator = unit.iterator();
+        while (iterator.hasNext()) {
+            SourceUnit sourceUnit = iterator.next();
+            URI uri = sourceUnit.getSource().getURI();
+            boolean isFile = uri != null && "file".equals(uri.getScheme());
+            if (isFile && sourceUnit.getAST() != null) for (ClassNode classNode : sourceUnit.getAST().getClasses()) {
+                entry.classSources.put(classNode.getName(), new File(uri).getPath());
+            }
+            if (mainSources.contains(sourceUnit)) continue;
+            if (!isFile) {
+                entry.cacheable = false;
+                continue;
+            }
+            dependencies.add(new File(uri));
+        }
+        dependencies.addAll(loadedDependencies);
+        dependencies.removeAll(files);
+        for (File dependency : dependencies) {
+            entry.dependencies.add(new Dependency(dependency.getPath(), dependency.lastModified(), dependency.length()));
+        }
+        return entry;
+    }
+
+    /**
+     * Load class from shared loader if its source is in shared directory,
+     * so the class is defined once and not in each compilation unit which uses it
+     * @return shared class, or null if class has no shared source
+     */
+    private Class loadSharedClass(String name){
+        GroovyClassLoader loader = sharedLoader;
+        if (loader == null || name.startsWith("java.") || name.indexOf('$') != -1) return null;
+        try {
+            URL url = loader.getResourceLoader().loadGroovySource(name);
+            if (url == null || !"file".equals(url.getProtocol())) return null;
+            File source = new File(url.toURI()).getCanonicalFile();
+            if (!isInside(source, sharedDirectory)) return null;
+            return loader.loadClass(name, true, false);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isInside(File file, File directory){
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(directory)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find source of class, which was compiled before and is resolved by name from the loader
+     * @return source file, or null if class is not compiled from file
+     */
+    private File getClassSource(GroovyClassLoader loader, ClassNode classNode){
+        if (!classNode.isResolved()) return null;
+        Class type = classNode.getTypeClass();
+        if (!(type.getClassLoader() instanceof GroovyClassLoader)) return null;
+        File source = classSources.get(type.getName());
+        if (source != null) return source;
+        try {
+            URL url = loader.getResourceLoader().loadGroovySource(type.getName());
+            if (url == null || !"file".equals(url.getProtocol())) return null;
+            return new File(url.toURI());
+        } catch (MalformedURLException e) {
+            return null;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private Entry readEntry(File entryFile) {
+        if (!entryFile.isFile()) return null;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+            if (input.readInt() != FORMAT_VERSION) return null;
+            Entry entry = new Entry();
+            int mainClassCount = input.readInt();
+            for (int i = 0; i < mainClassCount; i++) entry.mainClasses.add(input.readUTF());
+            int dependencyCount = input.readInt();
+            for (int i = 0; i < dependencyCount; i++) {
+                Dependency dependency = new Dependency(input.readUTF(), input.readLong(), input.readLong());
+                if (!dependency.isActual()) return null;
+                entry.dependencies.add(dependency);
+            }
+            int classCount = input.readInt();
+            for (int i = 0; i < classCount; i++) {
+                String name = input.readUTF();
+                String source = input.readUTF();
+                if (!source.isEmpty()) entry.classSources.put(name, source);
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                entry.classes.put(name, bytes);
+            }
+            return entry;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (input != null) try {
+                input.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void writeEntry(File entryFile, Entry entry) {
+        File tempFile = new File(directory, entryFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(entry.mainClasses.size());
+            for (String mainClass : entry.mainClasses) output.writeUTF(mainClass);
+            output.writeInt(entry.dependencies.size());
+            for (Dependency dependency : entry.dependencies) {
+                output.writeUTF(dependency.path);
+                output.writeLong(dependency.lastModified);
+                output.writeLong(dependency.length);
+            }
+            output.writeInt(entry.classes.size());
+            for (Map.Entry<String, byte[]> classEntry : entry.classes.entrySet()) {
+                output.writeUTF(classEntry.getKey());
+                String source = entry.classSources.get(classEntry.getKey());
+                output.writeUTF(source == null ? "" : source);
+                output.writeInt(classEntry.getValue().length);
+                output.write(classEntry.getValue());
+            }
+            written = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (output != null) try {
+                output.close();
+            } catch (IOException e) {
+                written = false;
+            }
+        }
+        if (written) {
+            entryFile.delete();
+            written = tempFile.renameTo(entryFile);
+        }
+        if (!written) tempFile.delete();
+    }
+
+    public static String hash(byte[]... parts){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte[] part : parts) {
+                digest.update(part);
+                digest.update((byte) 0);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String hash(String... parts){
+        byte[][] bytes = new byte[parts.length][];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                bytes[i] = parts[i] == null ? new byte[0] : parts[i].getBytes("UTF-8");
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return hash(bytes);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void deleteDir(File path){
+        File[] files = path.listFiles();
+        if (files != null) for (File file : files) deleteDir(file);
+        path.delete();
+    }
+
+    private static class Dependency {
+        final String path;
+        final long lastModified;
+        final long length;
+
+        Dependency(String path, long lastModified, long length) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isActual(){
+            File file = new File(path);
+            return file.isFile() && file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    private static class PhaseTimer extends CompilationUnit.ProgressCallback {
+
+        private final Map<String, Long> phaseTimes;
+        private int lastPhase;
+        private long lastTime;
+
+        PhaseTimer(Map<String, Long> phaseTimes) {
+            this.phaseTimes = phaseTimes;
+        }
+
+        @Override
+        public void call(ProcessingUnit context, int phase) {
+            finish();
+            lastPhase = phase;
+            lastTime = System.nanoTime();
+        }
+
+        void finish() {
+            if (lastTime == 0) return;
+            phaseTimes.put(Phases.getDescription(lastPhase), System.nanoTime() - lastTime);
+            lastTime = 0;
+        }
+    }
+
+    private static class Entry {
+        boolean cacheable = true;
+        final List<String> mainClasses = new ArrayList<String>();
+        final List<Dependency> dependencies = new ArrayList<Dependency>();
+        final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        final Map<String, String> classSources = new HashMap<String, String>();
+
+        Map<String, Class> define(GroovyClassLoader parent) {
+            EntryClassLoader loader = new EntryClassLoader(parent, new HashMap<String, byte[]>(classes));
+            Map<String, Class> result = new HashMap<String, Class>();
+            try {
+                for (String name : mainClasses) result.put(name, loader.loadClass(name));
+                for (String name : classes.keySet()) {
+                    setClassCacheEntry(parent, loader.loadClass(name));
+                }
+                return result;
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("broken cache entry: " + mainClasses, e);
+            }
+        }
+    }
+
+    /**
+     * Register class in class cache of loader, as {@link GroovyClassLoader#parseClass} does,
+     * so later scripts of loader resolve it by name
+     */
+    private static void setClassCacheEntry(GroovyClassLoader loader, Class type){
+        try {
+            setClassCacheEntry.invoke(loader, type);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Defines classes of one cache entry, resolving references between them on demand
+     */
+    private static class EntryClassLoader extends GroovyClassLoader.InnerLoader {
+
+        private final Map<String, byte[]> pending;
+
+        EntryClassLoader(GroovyClassLoader parent, Map<String, byte[]> pending) {
+            super(parent);
+            this.pending = pending;
+        }
+
+        @Override
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve)
+                throws ClassNotFoundException, CompilationFailedException {
+            synchronized (pending) {
+                byte[] bytes = pending.remove(name);
+                if (bytes != null) return defineClass(name, bytes);
+            }
+            return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+        }
+    }
+}
@@ -8,20 +8,23 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
 import org.codehaus.groovy.runtime.DefaultGroovyMethods;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import org.codehaus.groovy.runtime.InvokerInvocationException;
 import ru.dpohvar.varscript.VarScript;
 import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.caller.FlushTask;
-import ru.dpohvar.varscript.utils.PropertySelector;
 import ru.dpohvar.varscript.utils.ScriptProperties;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class CallerScript extends Script implements ScriptProperties {
 
@@ -32,9 +35,14 @@ public abstract class CallerScript extends Script implements ScriptProperties {
     private StringBuilder printCache = new StringBuilder();
     private BukkitTask flushBukkitTask = null;
     private Server server;
-    private static List<GroovyObject> dynamicModifiers = new ArrayList<GroovyObject>();
-
-    public static List<GroovyObject> getDynamicModifiers() {
+    private ResolutionCache resolutionCache;
+    private static List<DynamicModifier> dynamicModifiers = new ModifierList<DynamicModifier>();
+
+    /**
+     * Groovy objects added to this list are wrapped with {@link GroovyDynamicModifier}
+     * @return modifiers of script properties and methods
+     */
+    public static List<DynamicModifier> getDynamicModifiers() {
         return dynamicModifiers;
     }
 
@@ -48,6 +56,20 @@ public abstract class CallerScript extends Script implements ScriptProperties {
         else this.caller = plugin.getCallerService().getCaller(server.getConsoleSender());
         if (binding == null) binding = new Binding();
         setBinding(binding);
+        if (getMetaClass().getClass() == MetaClassImpl.class) setMetaClass(CallerScriptMetaClass.forClass(getClass()));
+        return this;
+    }
+
+    /**
+     * Initialize script without plugin: caller, server and scheduler are not set,
+     * so only methods and properties of workspace and bindings can be used.
+     * For benchmarks of scripts in {@link Workspace#Workspace(WorkspaceService)}
+     */
+    CallerScript initializeScript(Workspace workspace, Binding binding){
+        if (this.workspace != null) throw new IllegalStateException("Script has already been initialized");
+        this.workspace = workspace;
+        setBinding(binding);
+        if (getMetaClass().getClass() == MetaClassImpl.class) setMetaClass(CallerScriptMetaClass.forClass(getClass()));
         return this;
     }
 
@@ -177,53 +199,110 @@ public abstract class CallerScript extends Script implements ScriptProperties {
         return runScriptFile(file, binding);
     }
 
+    private static final Object MISSING = new Object();
+
+    private static final int METHOD_SELF = 0;
+    private static final int METHOD_WORKSPACE = 1;
+    private static final int METHOD_SELF_CLOSURE = 2;
+    private static final int METHOD_DYNAMIC = 3;
+    private static final int METHOD_WORKSPACE_CLOSURE = 4;
+    private static final int METHOD_GLOBAL_CLOSURE = 5;
+
+    private static final int PROPERTY_SELF = 0;
+    private static final int PROPERTY_SELF_BINDING = 1;
+    private static final int PROPERTY_WORKSPACE_BINDING = 2;
+    private static final int PROPERTY_SERVICE_BINDING = 3;
+    private static final int PROPERTY_DYNAMIC = 4;
+
+    /**
+     * @return resolution cache of script class, or null if categories are in use and nothing can be cached
+     */
+    private ResolutionCache getResolutionCache(){
+        if (GroovyCategorySupport.hasCategoryInAnyThread()) return null;
+        ResolutionCache cache = resolutionCache;
+        if (cache == null) resolutionCache = cache = ResolutionCache.forClass(getClass());
+        cache.validate(getMetaClass(), workspace.getMetaClass());
+        return cache;
+    }
+
     @Override
     public Object invokeMethod(String name, Object args){
         Object[] arguments;
         if (args instanceof Object[]) arguments = (Object[]) args;
         else arguments = new Object[]{args};
 
-        // SELF METHOD
-        try {
-            return getMetaClass().invokeMethod(this, name, arguments);
-        } catch (MissingMethodException ignored) {}
-
-        // WORKSPACE METHOD
-        try {
-            return workspace.getMetaClass().invokeMethod(workspace, name, arguments);
-        } catch (MissingMethodException ignored) {}
-
-        // SELF CLOSURE
-        Object property;
-        try {
-            property = getBinding().getVariable(name);
-            if (property != null) try {
-                return callProperty(property, arguments);
-            } catch (MissingMethodException ignored) {}
-        } catch (MissingPropertyException ignored) {}
+        ResolutionCache cache = getResolutionCache();
+        VarScriptBinding workspaceBinding = workspace.getBinding();
+        VarScriptBinding serviceBinding = workspace.getWorkspaceService().getBinding();
+        long workspaceVersion = workspaceBinding.getVersion();
+        long serviceVersion = serviceBinding.getVersion();
+        ResolutionCache.Resolution resolution = cache == null ? null : cache.getMethod(name);
+        boolean actual = resolution != null && resolution.isActual(workspaceVersion, serviceVersion);
+        int start = resolution == null ? METHOD_SELF : resolution.start;
+
+        for (int tier = METHOD_SELF; tier <= METHOD_GLOBAL_CLOSURE; tier++) {
+            if (tier < start && (tier <= METHOD_WORKSPACE || actual && tier == METHOD_WORKSPACE_CLOSURE)) continue;
+            Object result = invokeMethodAt(tier, name, arguments, workspaceBinding, serviceBinding);
+            if (result == MISSING) continue;
+            if (cache != null && (!actual || tier > start)) {
+                int resolvedStart = tier == METHOD_SELF ? tier : Math.min(tier, getFirstMethodTier(name));
+                if (!actual || resolvedStart > start) {
+                    cache.putMethod(name, new ResolutionCache.Resolution(resolvedStart, workspaceVersion, serviceVersion));
+                }
+            }
+            return result;
+        }
+        if (cache != null && (!actual || start < METHOD_GLOBAL_CLOSURE)) {
+            int resolvedStart = Math.min(METHOD_GLOBAL_CLOSURE, getFirstMethodTier(name));
+            cache.putMethod(name, new ResolutionCache.Resolution(resolvedStart, workspaceVersion, serviceVersion));
+        }
+        throw new MissingMethodException(name, this.getClass(), arguments);
+    }
 
-        // DYNAMIC METHOD
-        try {
-            return invokeMethodFor(this, name, arguments);
-        } catch (PropertySelector ignored) {}
+    private Object invokeMethodAt(int tier, String name, Object[] arguments, Binding workspaceBinding, Binding serviceBinding){
+        switch (tier) {
+            case METHOD_SELF: try {
+                return getMetaClass().invokeMethod(this, name, arguments);
+            } catch (MissingMethodException ignored) {
+                return MISSING;
+            }
+            case METHOD_WORKSPACE: try {
+                return workspace.getMetaClass().invokeMethod(workspace, name, arguments);
+            } catch (MissingMethodException ignored) {
+                return MISSING;
+            }
+            case METHOD_SELF_CLOSURE:
+                return callVariable(getBinding(), name, arguments);
+            case METHOD_DYNAMIC:
+                Object result = invokeMethodFor(this, name, arguments);
+                return result == DynamicModifier.NEXT ? MISSING : result;
+            case METHOD_WORKSPACE_CLOSURE:
+                return callVariable(workspaceBinding, name, arguments);
+            case METHOD_GLOBAL_CLOSURE:
+                return callVariable(serviceBinding, name, arguments);
+        }
+        return MISSING;
+    }
 
-        // WORKSPACE CLOSURE
-        try {
-            property = workspace.getBinding().getVariable(name);
-            if (property != null) try {
-                return callProperty(property, arguments);
-            } catch (MissingMethodException ignored) {}
-        } catch (MissingPropertyException ignored) {}
+    /**
+     * @return first method tier which has member with this name regardless of arguments
+     */
+    private int getFirstMethodTier(String name){
+        MetaClass metaClass = getMetaClass();
+        if (!metaClass.respondsTo(this, name).isEmpty() || metaClass.hasProperty(this, name) != null) return METHOD_SELF;
+        metaClass = workspace.getMetaClass();
+        if (!metaClass.respondsTo(workspace, name).isEmpty() || metaClass.hasProperty(workspace, name) != null) return METHOD_WORKSPACE;
+        return METHOD_SELF_CLOSURE;
+    }
 
-        // GLOBAL CLOSURE
+    private Object callVariable(Binding binding, String name, Object[] arguments){
+        Object property = getVariable(binding, name);
+        if (property == MISSING || property == null) return MISSING;
         try {
-            property = workspace.getWorkspaceService().getBinding().getVariable(name);
-            if (property != null) try {
-                return callProperty(property, arguments);
-            } catch (MissingMethodException ignored) {}
-        } catch (MissingPropertyException ignored) {}
-
-        throw new MissingMethodException(name, this.getClass(), arguments);
+            return callProperty(property, arguments);
+        } catch (MissingMethodException ignored) {
+            return MISSING;
+        }
     }
 
     private Object callProperty(Object property, Object... arguments){
@@ -233,32 +312,54 @@ public abstract class CallerScript extends Script implements ScriptProperties {
 
     @Override
     public Object getProperty(String property) {
-        // SELF PROPERTY
-        try {
-            return getMetaClass().getProperty(this, property);
-        } catch (MissingPropertyException ignored) {}
-
-        // SELF BINDING
-        try {
-            return getBinding().getVariable(property);
-        } catch (MissingPropertyException ignored) {}
-
-        // WORKSPACE BINDING
-        try {
-            return workspace.getBinding().getVariable(property);
-        } catch (MissingPropertyException ignored) {}
-
-        // SERVICE BINDING
-        try {
-            return workspace.getWorkspaceService().getBinding().getVariable(property);
-        } catch (MissingPropertyException ignored) {}
+        ResolutionCache cache = getResolutionCache();
+        VarScriptBinding workspaceBinding = workspace.getBinding();
+        VarScriptBinding serviceBinding = workspace.getWorkspaceService().getBinding();
+        long workspaceVersion = workspaceBinding.getVersion();
+        long serviceVersion = serviceBinding.getVersion();
+        ResolutionCache.Resolution resolution = cache == null ? null : cache.getProperty(property);
+        boolean actual = resolution != null && resolution.isActual(workspaceVersion, serviceVersion);
+        int start = resolution == null ? PROPERTY_SELF : resolution.start;
+
+        for (int tier = PROPERTY_SELF; tier <= PROPERTY_DYNAMIC; tier++) {
+            if (tier < start && (tier == PROPERTY_SELF || actual && tier != PROPERTY_SELF_BINDING)) continue;
+            Object value = getPropertyAt(tier, property, workspaceBinding, serviceBinding);
+            if (value == MISSING) continue;
+            if (cache != null && (!actual || tier > start)) {
+                cache.putProperty(property, new ResolutionCache.Resolution(tier, workspaceVersion, serviceVersion));
+            }
+            return value;
+        }
+        if (cache != null && (!actual || start < PROPERTY_DYNAMIC)) {
+            cache.putProperty(property, new ResolutionCache.Resolution(PROPERTY_DYNAMIC, workspaceVersion, serviceVersion));
+        }
+        throw new MissingPropertyException(property, this.getClass());
+    }
 
-        // SELF DYNAMIC PROPERTY
-        try {
-           return getPropertyFor(this, property);
-        } catch (PropertySelector ignored) {}
+    private Object getPropertyAt(int tier, String property, Binding workspaceBinding, Binding serviceBinding){
+        switch (tier) {
+            case PROPERTY_SELF: try {
+                return getMetaClass().getProperty(this, property);
+            } catch (MissingPropertyException ignored) {
+                return MISSING;
+            }
+            case PROPERTY_SELF_BINDING:
+                return getVariable(getBinding(), property);
+            case PROPERTY_WORKSPACE_BINDING:
+                return getVariable(workspaceBinding, property);
+            case PROPERTY_SERVICE_BINDING:
+                return getVariable(serviceBinding, property);
+            case PROPERTY_DYNAMIC:
+                Object value = getPropertyFor(this, property);
+                return value == DynamicModifier.NEXT ? MISSING : value;
+        }
+        return MISSING;
+    }
 
-        throw new MissingPropertyException(property, this.getClass());
+    private static Object getVariable(Binding binding, String name){
+        if (binding instanceof VarScriptBinding) return ((VarScriptBinding) binding).lookup(name, MISSING);
+        if (!binding.hasVariable(name)) return MISSING;
+        return binding.getVariable(name);
     }
 
     @Override
@@ -283,28 +384,125 @@ public abstract class CallerScript extends Script implements ScriptProperties {
         workspace.getBinding().setVariable(property, newValue);
     }
 
+    /**
+     * @return value of property from dynamic modifiers, or {@link DynamicModifier#NEXT}
+     */
     public static Object getPropertyFor(ScriptProperties script, String property){
-        Object args = new Object[]{script, property};
-        for (GroovyObject modifier : dynamicModifiers) try {
-            return modifier.getMetaClass().invokeMethod(modifier, "getPropertyFor", args);
-        } catch (InvokerInvocationException exception){
-            if (exception.getCause() != PropertySelector.next) throw exception;
-        } catch (MissingMethodException ignored){}
-        throw PropertySelector.next;
+        for (DynamicModifier modifier : dynamicModifiers) {
+            Set<String> names = modifier.getPropertyNames();
+            if (names != null && !names.contains(property)) continue;
+            Object result;
+            try {
+                result = modifier.getPropertyFor(script, property);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new InvokerInvocationException(e);
+            }
+            if (result != DynamicModifier.NEXT) return result;
+        }
+        return DynamicModifier.NEXT;
     }
 
+    /**
+     * @return result of method from dynamic modifiers, or {@link DynamicModifier#NEXT}
+     */
     public static Object invokeMethodFor(ScriptProperties script, String name, Object[] args){
-        Object arguments = new Object[]{script, name, args};
-        for (GroovyObject modifier : dynamicModifiers) try {
-            return InvokerHelper.invokeMethod(modifier, "invokeMethodFor", arguments);
-        } catch (InvokerInvocationException exception){
-            if (exception.getCause() != PropertySelector.next) throw exception;
-        } catch (MissingMethodException ignored){}
-        throw PropertySelector.next;
+        for (DynamicModifier modifier : dynamicModifiers) {
+            Set<String> names = modifier.getMethodNames();
+            if (names != null && !names.contains(name)) continue;
+            Object result;
+            try {
+                result = modifier.invokeMethodFor(script, name, args);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new InvokerInvocationException(e);
+            }
+            if (result != DynamicModifier.NEXT) return result;
+        }
+        return DynamicModifier.NEXT;
     }
 
     @Override
     public String toString(){
         return caller.getSender().getName() + "@" + workspace;
     }
+
+    /**
+     * List of modifiers which adapts groovy objects added by old hooks,
+     * raw list operations can not be checked by compiler
+     */
+    private static class ModifierList<E> extends CopyOnWriteArrayList<E> {
+
+        @SuppressWarnings("unchecked")
+        private static <E> E adapt(E modifier){
+            if (modifier instanceof DynamicModifier) return modifier;
+            if (modifier instanceof GroovyObject) return (E) new GroovyDynamicModifier((GroovyObject) modifier);
+            throw new IllegalArgumentException("not a dynamic modifier: " + modifier);
+        }
+
+        private static <E> List<E> adapt(Collection<? extends E> modifiers){
+            List<E> result = new ArrayList<E>(modifiers.size());
+            for (E modifier : modifiers) result.add(adapt(modifier));
+            return result;
+        }
+
+        private static Object adaptObject(Object modifier){
+            if (modifier instanceof GroovyObject && !(modifier instanceof DynamicModifier)) {
+                return new GroovyDynamicModifier((GroovyObject) modifier);
+            }
+            return modifier;
+        }
+
+        @Override
+        public boolean add(E e) {
+            return super.add(adapt(e));
+        }
+
+        @Override
+        public void add(int index, E element) {
+            super.add(index, adapt(element));
+        }
+
+        @Override
+        public E set(int index, E element) {
+            return super.set(index, adapt(element));
+        }
+
+        @Override
+        public boolean addIfAbsent(E e) {
+            return super.addIfAbsent(adapt(e));
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            return super.addAll(adapt(c));
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            return super.addAll(index, adapt(c));
+        }
+
+        @Override
+        public int addAllAbsent(Collection<? extends E> c) {
+            return super.addAllAbsent(adapt(c));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return super.remove(adaptObject(o));
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return super.contains(adaptObject(o));
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return super.indexOf(adaptObject(o));
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.GroovyObject;
+import groovy.lang.GroovyRuntimeException;
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaClassImpl;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+import org.codehaus.groovy.runtime.callsite.CallSite;
+import org.codehaus.groovy.runtime.callsite.CallSiteArray;
+import org.codehaus.groovy.runtime.callsite.MetaClassSite;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Metaclass of compiled scripts.
+ * Call sites of names, which are not methods of script class, are bound to {@link CallerScript#invokeMethod}
+ * once, instead of failing in metaclass with missing method exception on each call
+ */
+class CallerScriptMetaClass extends MetaClassImpl {
+
+    private static final Map<Class,WeakReference<CallerScriptMetaClass>> metaClasses = new WeakHashMap<Class, WeakReference<CallerScriptMetaClass>>();
+
+    private CallerScriptMetaClass(Class scriptClass) {
+        super(GroovySystem.getMetaClassRegistry(), scriptClass);
+    }
+
+    /**
+     * @param scriptClass class of script
+     * @return shared metaclass of script class
+     */
+    static CallerScriptMetaClass forClass(Class scriptClass){
+        synchronized (metaClasses) {
+            WeakReference<CallerScriptMetaClass> reference = metaClasses.get(scriptClass);
+            CallerScriptMetaClass metaClass = reference == null ? null : reference.get();
+            if (metaClass == null) {
+                metaClass = new CallerScriptMetaClass(scriptClass);
+                metaClass.initialize();
+                metaClasses.put(scriptClass, new WeakReference<CallerScriptMetaClass>(metaClass));
+            }
+            return metaClass;
+        }
+    }
+
+    @Override
+    public CallSite createPogoCallSite(CallSite site, Object[] args) {
+        if (isDynamicName(site.getName())) return new DynamicCallSite(site, this);
+        return super.createPogoCallSite(site, args);
+    }
+
+    @Override
+    public CallSite createPogoCallCurrentSite(CallSite site, Class sender, Object[] args) {
+        if (isDynamicName(site.getName())) return new DynamicCallSite(site, this);
+        return super.createPogoCallCurrentSite(site, sender, args);
+    }
+
+    private boolean isDynamicName(String name){
+        return !GroovyCategorySupport.hasCategoryInCurrentThread() && respondsTo(null, name).isEmpty();
+    }
+
+    private static class DynamicCallSite extends MetaClassSite {
+
+        DynamicCallSite(CallSite site, MetaClass metaClass) {
+            super(site, metaClass);
+        }
+
+        @Override
+        public Object call(Object receiver, Object[] args) throws Throwable {
+            if (receiver instanceof CallerScript && ((GroovyObject) receiver).getMetaClass() == metaClass) {
+                return invoke((CallerScript) receiver, args);
+            }
+            return CallSiteArray.defaultCall(this, receiver, args);
+        }
+
+        @Override
+        public Object callCurrent(GroovyObject receiver, Object[] args) throws Throwable {
+            if (receiver instanceof CallerScript && receiver.getMetaClass() == metaClass) {
+                return invoke((CallerScript) receiver, args);
+            }
+            return CallSiteArray.defaultCallCurrent(this, receiver, args);
+        }
+
+        private Object invoke(CallerScript script, Object[] args) throws Throwable {
+            try {
+                return script.invokeMethod(name, args);
+            } catch (GroovyRuntimeException e) {
+                throw ScriptBytecodeAdapter.unwrap(e);
+            }
+        }
+    }
+}
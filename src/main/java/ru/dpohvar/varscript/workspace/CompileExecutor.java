@@ -0,0 +1,206 @@
+package ru.dpohvar.varscript.workspace;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded executor of asynchronous script compilation.
+ * Tasks of each owner are queued separately and taken in round-robin order,
+ * identical pending tasks of one owner are coalesced into the queued one
+ */
+public class CompileExecutor {
+
+    private final int queueCapacity;
+    private final int ownerCapacity;
+    private final Map<Object,LinkedList<Task>> queues = new HashMap<Object, LinkedList<Task>>();
+    private final LinkedList<Object> owners = new LinkedList<Object>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private int queueSize;
+    private boolean shutdown;
+
+    private long submitted;
+    private long rejected;
+    private long coalesced;
+    private long completed;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    /**
+     * @param threads count of worker threads
+     * @param queueCapacity max count of pending tasks
+     * @param ownerCapacity max count of pending tasks of one owner
+     */
+    public CompileExecutor(int threads, int queueCapacity, int ownerCapacity) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive: "+threads);
+        this.queueCapacity = queueCapacity;
+        this.ownerCapacity = ownerCapacity;
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(new Worker(), "VarScript-compiler-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Task which takes over identical tasks submitted while it is queued
+     */
+    public interface CoalescingTask extends Runnable {
+        /**
+         * Called under lock of executor when identical task of the same owner is submitted.
+         * The submitted task is not queued, this task should do its work too
+         * @param task identical task
+         */
+        void coalesce(Runnable task);
+    }
+
+    /**
+     * Queue the task
+     * @param owner owner of task, tasks of different owners are executed in turn
+     * @param key key to coalesce identical tasks of one owner, or null
+     * @param task task
+     * @return false if task is coalesced into identical {@link CoalescingTask} of this owner, which is already queued
+     * @throws RejectedExecutionException if queue is full
+     */
+    public synchronized boolean submit(Object owner, Object key, Runnable task) throws RejectedExecutionException {
+        if (shutdown) throw new RejectedExecutionException("compiler is stopped");
+        LinkedList<Task> queue = queues.get(owner);
+        if (queue != null && key != null) for (Task pending : queue) {
+            if (key.equals(pending.key) && pending.runnable instanceof CoalescingTask) {
+                ((CoalescingTask) pending.runnable).coalesce(task);
+                coalesced++;
+                return false;
+            }
+        }
+        if (queue != null && queue.size() >= ownerCapacity) {
+            rejected++;
+            throw new RejectedExecutionException("too many scripts in queue: " + queue.size() + ", wait for them to finish");
+        }
+        if (queueSize >= queueCapacity) {
+            rejected++;
+            throw new RejectedExecutionException("compiler is busy: " + queueSize + " scripts in queue, try again later");
+        }
+        if (queue == null) {
+            queue = new LinkedList<Task>();
+            queues.put(owner, queue);
+            owners.addLast(owner);
+        }
+        queue.addLast(new Task(key, task));
+        queueSize++;
+        submitted++;
+        notify();
+        return true;
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (!shutdown && owners.isEmpty()) wait();
+        if (shutdown) return null;
+        Object owner = owners.removeFirst();
+        LinkedList<Task> queue = queues.get(owner);
+        Task task = queue.removeFirst();
+        if (queue.isEmpty()) queues.remove(owner);
+        else owners.addLast(owner);
+        queueSize--;
+        long waitTime = System.nanoTime() - task.submitTime;
+        totalWaitTime += waitTime;
+        if (waitTime > maxWaitTime) maxWaitTime = waitTime;
+        return task;
+    }
+
+    private synchronized void complete(){
+        completed++;
+    }
+
+    public void shutdown(){
+        synchronized (this) {
+            shutdown = true;
+            queues.clear();
+            owners.clear();
+            queueSize = 0;
+            notifyAll();
+        }
+        for (Thread worker : workers) worker.interrupt();
+    }
+
+    /**
+     * @return count of pending tasks
+     */
+    public synchronized int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public synchronized long getSubmitted() {
+        return submitted;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return average time in nanoseconds between submit and start of task
+     */
+    public synchronized long getAverageWaitTime() {
+        long started = submitted - queueSize;
+        return started <= 0 ? 0 : totalWaitTime / started;
+    }
+
+    /**
+     * @return max time in nanoseconds between submit and start of task
+     */
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "queue=" + queueSize + "/" + queueCapacity + ", submitted=" + submitted + ", completed=" + completed +
+                ", rejected=" + rejected + ", coalesced=" + coalesced +
+                ", wait avg=" + getAverageWaitTime() / 1000000 + "ms, max=" + maxWaitTime / 1000000 + "ms";
+    }
+
+    private static class Task {
+        final Object key;
+        final Runnable runnable;
+        final long submitTime = System.nanoTime();
+
+        Task(Object key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == null) return;
+                try {
+                    task.runnable.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                } finally {
+                    complete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.dpohvar.varscript.workspace;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Statistics of compilation of one source file or compilation unit
+ */
+public class CompileReport {
+
+    private final File file;
+    private long time;
+    private boolean cached;
+    private int classCount = -1;
+    private long bytecodeSize = -1;
+    private Throwable error;
+    private final Set<File> dependencies = new HashSet<File>();
+    private final Map<String,Long> phaseTimes = new LinkedHashMap<String, Long>();
+
+    public CompileReport(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return compilation time in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * @return true if class was loaded from memory or bytecode cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * @return count of generated classes, or -1 if unknown
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public void setClassCount(int classCount) {
+        this.classCount = classCount;
+    }
+
+    /**
+     * @return total size of generated bytecode, or -1 if unknown
+     */
+    public long getBytecodeSize() {
+        return bytecodeSize;
+    }
+
+    public void setBytecodeSize(long bytecodeSize) {
+        this.bytecodeSize = bytecodeSize;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public void setError(Throwable error) {
+        this.error = error;
+    }
+
+    /**
+     * @return source files the compiled file depends on
+     */
+    public Set<File> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return time of each compilation phase in nanoseconds, empty if class was cached
+     */
+    public Map<String, Long> getPhaseTimes() {
+        return phaseTimes;
+    }
+}
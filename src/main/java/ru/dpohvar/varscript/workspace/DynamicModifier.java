@@ -0,0 +1,48 @@
+package ru.dpohvar.varscript.workspace;
+
+import ru.dpohvar.varscript.utils.ScriptProperties;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Source of script properties and methods, which are not found in script, workspace and bindings.
+ * Modifiers are registered in {@link CallerScript#getDynamicModifiers()}
+ */
+public interface DynamicModifier {
+
+    /**
+     * Result of modifier, which has no value for the name
+     */
+    public static final Object NEXT = new Object();
+
+    /**
+     * @return names of properties this modifier can resolve, or null if any name can be resolved
+     */
+    public Set<String> getPropertyNames();
+
+    /**
+     * @return names of methods this modifier can resolve, or null if any name can be resolved
+     */
+    public Set<String> getMethodNames();
+
+    /**
+     * @return value of property, or {@link #NEXT}
+     */
+    public Object getPropertyFor(ScriptProperties script, String property) throws Exception;
+
+    /**
+     * @return result of method, or {@link #NEXT}
+     */
+    public Object invokeMethodFor(ScriptProperties script, String name, Object[] args) throws Exception;
+
+    /**
+     * @return property names with types for tab completion
+     */
+    public Map<String,Class> getPropertyMapFor(ScriptProperties script);
+
+    /**
+     * @return method names with return types for tab completion
+     */
+    public Map<String,Class> getMethodMapFor(ScriptProperties script);
+}
@@ -0,0 +1,93 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.GroovyObject;
+import groovy.lang.MissingMethodException;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
+import ru.dpohvar.varscript.utils.PropertySelector;
+import ru.dpohvar.varscript.utils.ScriptProperties;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adapter of groovy object to {@link DynamicModifier}.
+ * Groovy modifier has methods getPropertyFor, invokeMethodFor, getPropertyMapFor and getMethodMapFor
+ * and throws {@link PropertySelector#next} if it has no value for the name
+ */
+public class GroovyDynamicModifier implements DynamicModifier {
+
+    private final GroovyObject modifier;
+
+    public GroovyDynamicModifier(GroovyObject modifier) {
+        this.modifier = modifier;
+    }
+
+    public GroovyObject getModifier() {
+        return modifier;
+    }
+
+    @Override
+    public Set<String> getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public Set<String> getMethodNames() {
+        return null;
+    }
+
+    @Override
+    public Object getPropertyFor(ScriptProperties script, String property) {
+        return invoke("getPropertyFor", new Object[]{script, property});
+    }
+
+    @Override
+    public Object invokeMethodFor(ScriptProperties script, String name, Object[] args) {
+        return invoke("invokeMethodFor", new Object[]{script, name, args});
+    }
+
+    @Override
+    public Map<String, Class> getPropertyMapFor(ScriptProperties script) {
+        return getMap("getPropertyMapFor", script);
+    }
+
+    @Override
+    public Map<String, Class> getMethodMapFor(ScriptProperties script) {
+        return getMap("getMethodMapFor", script);
+    }
+
+    private Object invoke(String method, Object[] args){
+        try {
+            return modifier.getMetaClass().invokeMethod(modifier, method, args);
+        } catch (InvokerInvocationException exception){
+            if (exception.getCause() != PropertySelector.next) throw exception;
+        } catch (PropertySelector ignored){
+        } catch (MissingMethodException ignored){}
+        return NEXT;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String,Class> getMap(String method, ScriptProperties script){
+        try {
+            Object result = modifier.getMetaClass().invokeMethod(modifier, method, new Object[]{script});
+            if (result instanceof Map) return (Map<String,Class>) result;
+        } catch (MissingMethodException ignored){}
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof GroovyDynamicModifier && ((GroovyDynamicModifier) obj).modifier == modifier;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(modifier);
+    }
+
+    @Override
+    public String toString() {
+        return modifier.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package ru.dpohvar.varscript.workspace;
+
+import org.bukkit.scheduler.BukkitTask;
+import ru.dpohvar.varscript.VarScript;
+import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.utils.DirectoryWatcher;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Reloads workspaces which autorun depends on changed source files.
+ * Changes are collected from directory watcher and applied on main thread
+ * when no more changes come during debounce time
+ */
+class HotReloader implements DirectoryWatcher.Listener, Runnable {
+
+    private final WorkspaceService workspaceService;
+    private final long debounce;
+    private final Set<File> pending = new LinkedHashSet<File>();
+    private long lastChange;
+    private BukkitTask task;
+
+    HotReloader(WorkspaceService workspaceService, long debounce) {
+        this.workspaceService = workspaceService;
+        this.debounce = debounce;
+    }
+
+    void start(){
+        VarScript plugin = workspaceService.getVarScript();
+        workspaceService.getDirectoryWatcher().addListener(this);
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 5, 5);
+    }
+
+    void stop(){
+        workspaceService.getDirectoryWatcher().removeListener(this);
+        if (task != null) task.cancel();
+        task = null;
+    }
+
+    @Override
+    public synchronized void onChange(DirectoryWatcher watcher, Set<File> created, Set<File> modified, Set<File> deleted) {
+        int size = pending.size();
+        addSources(created);
+        addSources(modified);
+        addSources(deleted);
+        if (pending.size() != size) lastChange = System.currentTimeMillis();
+    }
+
+    private void addSources(Set<File> files){
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".groovy") || name.equals("config.yml")) pending.add(file);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<File> changes;
+        synchronized (this) {
+            if (pending.isEmpty() || System.currentTimeMillis() - lastChange < debounce) return;
+            changes = new ArrayList<File>(pending);
+            pending.clear();
+        }
+        Caller caller = workspaceService.getVarScript().getCallerService().getConsoleCaller();
+        for (Workspace workspace : workspaceService.getWorkspaces()) {
+            List<File> affected = new ArrayList<File>();
+            for (File file : changes) if (workspace.dependsOn(file)) affected.add(file);
+            if (affected.isEmpty()) continue;
+            String name = workspace.getName();
+            long start = System.nanoTime();
+            workspace.removeWorkspace();
+            workspaceService.getOrCreateWorkspace(name);
+            long time = (System.nanoTime() - start) / 1000000;
+            caller.sendMessage("workspace " + name + " is reloaded in " + time + " ms, changed: " + affected, name);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.MetaClass;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tiers of {@link CallerScript} lookup, where property and method names of script class were resolved.
+ * Misses of metaclass tiers are valid while metaclasses of script and workspace are the same,
+ * misses of binding tiers are valid while versions of workspace and service bindings are the same
+ */
+class ResolutionCache {
+
+    private static final int MAX_NAMES = 1024;
+    private static final Map<Class,ResolutionCache> caches = new WeakHashMap<Class, ResolutionCache>();
+
+    private final Map<String,Resolution> properties = new ConcurrentHashMap<String, Resolution>();
+    private final Map<String,Resolution> methods = new ConcurrentHashMap<String, Resolution>();
+    private volatile WeakReference<MetaClass> selfMetaClass = new WeakReference<MetaClass>(null);
+    private volatile WeakReference<MetaClass> workspaceMetaClass = new WeakReference<MetaClass>(null);
+
+    static ResolutionCache forClass(Class scriptClass){
+        synchronized (caches) {
+            ResolutionCache cache = caches.get(scriptClass);
+            if (cache == null) {
+                cache = new ResolutionCache();
+                caches.put(scriptClass, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Forget all names if metaclass of script or workspace was changed
+     */
+    void validate(MetaClass self, MetaClass workspace){
+        if (selfMetaClass.get() == self && workspaceMetaClass.get() == workspace) return;
+        synchronized (this) {
+            if (selfMetaClass.get() == self && workspaceMetaClass.get() == workspace) return;
+            properties.clear();
+            methods.clear();
+            selfMetaClass = new WeakReference<MetaClass>(self);
+            workspaceMetaClass = new WeakReference<MetaClass>(workspace);
+        }
+    }
+
+    Resolution getProperty(String name){
+        return properties.get(name);
+    }
+
+    void putProperty(String name, Resolution resolution){
+        put(properties, name, resolution);
+    }
+
+    Resolution getMethod(String name){
+        return methods.get(name);
+    }
+
+    void putMethod(String name, Resolution resolution){
+        put(methods, name, resolution);
+    }
+
+    private static void put(Map<String,Resolution> map, String name, Resolution resolution){
+        if (map.size() >= MAX_NAMES) map.clear();
+        map.put(name, resolution);
+    }
+
+    static class Resolution {
+        /**
+         * first tier to look up, all skippable tiers before it are misses
+         */
+        final int start;
+        final long workspaceVersion;
+        final long serviceVersion;
+
+        /**
+         * @param start first tier to look up
+         * @param workspaceVersion version of workspace binding, taken before lookup
+         * @param serviceVersion version of service binding, taken before lookup
+         */
+        Resolution(int start, long workspaceVersion, long serviceVersion) {
+            this.start = start;
+            this.workspaceVersion = workspaceVersion;
+            this.serviceVersion = serviceVersion;
+        }
+
+        /**
+         * @return true if no variables were added to or removed from bindings since resolution
+         */
+        boolean isActual(long workspaceVersion, long serviceVersion){
+            return this.workspaceVersion == workspaceVersion && this.serviceVersion == serviceVersion;
+        }
+    }
+}
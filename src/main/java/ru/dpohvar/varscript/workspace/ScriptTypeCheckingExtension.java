@@ -0,0 +1,58 @@
+package ru.dpohvar.varscript.workspace;
+
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.expr.*;
+import org.codehaus.groovy.transform.stc.AbstractTypeCheckingExtension;
+import org.codehaus.groovy.transform.stc.StaticTypeCheckingVisitor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Type checking extension for statically compiled workspaces.
+ * Unresolved variables and members of scripts, workspaces and untyped objects
+ * are resolved dynamically at runtime, everything else is checked and compiled statically
+ */
+public class ScriptTypeCheckingExtension extends AbstractTypeCheckingExtension {
+
+    private static final List<ClassNode> dynamicTypes = Arrays.asList(
+            ClassHelper.make(CallerScript.class),
+            ClassHelper.make(Workspace.class),
+            ClassHelper.make(WorkspaceService.class)
+    );
+
+    public ScriptTypeCheckingExtension(StaticTypeCheckingVisitor typeCheckingVisitor) {
+        super(typeCheckingVisitor);
+    }
+
+    @Override
+    public boolean handleUnresolvedVariableExpression(VariableExpression vexp) {
+        makeDynamic(vexp);
+        return true;
+    }
+
+    @Override
+    public boolean handleUnresolvedProperty(PropertyExpression pexp) {
+        if (!isDynamicType(getType(pexp.getObjectExpression()))) return false;
+        makeDynamic(pexp);
+        return true;
+    }
+
+    @Override
+    public List<MethodNode> handleMissingMethod(ClassNode receiver, String name, ArgumentListExpression argumentList, ClassNode[] argumentTypes, MethodCall call) {
+        boolean implicitThis = call instanceof MethodCallExpression && ((MethodCallExpression) call).isImplicitThis();
+        if (!implicitThis && !isDynamicType(receiver)) return Collections.emptyList();
+        return Collections.singletonList(makeDynamic(call));
+    }
+
+    private static boolean isDynamicType(ClassNode type){
+        if (type == null || type.equals(ClassHelper.OBJECT_TYPE)) return true;
+        for (ClassNode dynamicType : dynamicTypes) {
+            if (type.equals(dynamicType) || type.isDerivedFrom(dynamicType)) return true;
+        }
+        return false;
+    }
+}
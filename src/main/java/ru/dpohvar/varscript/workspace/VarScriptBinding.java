@@ -0,0 +1,203 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.Binding;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe binding of workspace and service variables.
+ * Version of binding changes each time a variable is added or removed,
+ * listeners are notified about every change of variables
+ */
+public class VarScriptBinding extends Binding {
+
+    private static final AtomicLong versionCounter = new AtomicLong();
+    private static final Object NULL = new Object();
+
+    public interface Listener {
+        /**
+         * Variable is added or its value is replaced
+         * @param oldValue previous value, or null if variable is new
+         */
+        void variableSet(VarScriptBinding binding, Object name, Object oldValue, Object newValue, boolean added);
+
+        void variableRemoved(VarScriptBinding binding, Object name, Object oldValue);
+    }
+
+    private final VariableMap variables;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public VarScriptBinding() {
+        this(new VariableMap());
+    }
+
+    private VarScriptBinding(VariableMap variables) {
+        super(variables);
+        this.variables = variables;
+        variables.binding = this;
+    }
+
+    /**
+     * Versions are unique among all bindings,
+     * so equal versions mean the same binding with the same set of variables
+     * @return current version of binding
+     */
+    public long getVersion() {
+        return variables.version.get();
+    }
+
+    /**
+     * Get variable without throwing {@link groovy.lang.MissingPropertyException}
+     * @param name name of variable
+     * @param defaultValue result if there is no such variable
+     * @return value of variable or defaultValue
+     */
+    public Object lookup(String name, Object defaultValue) {
+        Object value = variables.delegate.get(name);
+        if (value == null) return defaultValue;
+        return value == NULL ? null : value;
+    }
+
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    private void fireSet(Object name, Object oldValue, Object newValue, boolean added){
+        for (Listener listener : listeners) try {
+            listener.variableSet(this, name, oldValue, newValue, added);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fireRemoved(Object name, Object oldValue){
+        for (Listener listener : listeners) try {
+            listener.variableRemoved(this, name, oldValue);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Object mask(Object value){
+        return value == null ? NULL : value;
+    }
+
+    private static Object unmask(Object value){
+        return value == NULL ? null : value;
+    }
+
+    private static class VariableMap extends AbstractMap<Object,Object> {
+
+        private final ConcurrentHashMap<Object,Object> delegate = new ConcurrentHashMap<Object, Object>();
+        private final AtomicLong version = new AtomicLong(versionCounter.incrementAndGet());
+        private VarScriptBinding binding;
+
+        /**
+         * Move version forward after change of variables.
+         * Concurrent changes may take counter values in one order and store them in another,
+         * so version is never replaced with a smaller one
+         */
+        private void nextVersion(){
+            long next = versionCounter.incrementAndGet();
+            while (true) {
+                long current = version.get();
+                if (current >= next || version.compareAndSet(current, next)) return;
+            }
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (key == null) return null;
+            return unmask(delegate.get(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && delegate.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return delegate.containsValue(mask(value));
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            if (key == null) throw new NullPointerException("variable name is null");
+            Object old = delegate.put(key, mask(value));
+            if (old == null) nextVersion();
+            binding.fireSet(key, unmask(old), value, old == null);
+            return unmask(old);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            if (key == null) return null;
+            Object old = delegate.remove(key);
+            if (old == null) return null;
+            nextVersion();
+            binding.fireRemoved(key, unmask(old));
+            return unmask(old);
+        }
+
+        @Override
+        public void clear() {
+            for (Object key : delegate.keySet()) remove(key);
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    final Iterator<Entry<Object, Object>> iterator = delegate.entrySet().iterator();
+                    return new Iterator<Entry<Object, Object>>() {
+                        private Object lastKey;
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next() {
+                            Entry<Object, Object> entry = iterator.next();
+                            lastKey = entry.getKey();
+                            return new SimpleEntry<Object, Object>(lastKey, unmask(entry.getValue())) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    super.setValue(value);
+                                    return put(getKey(), value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (lastKey == null) throw new IllegalStateException();
+                            VariableMap.this.remove(lastKey);
+                            lastKey = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return delegate.size();
+                }
+            };
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package ru.dpohvar.varscript.workspace;
 
 import groovy.lang.*;
+import groovy.transform.CompileStatic;
+import groovy.transform.TypeChecked;
 import groovy.transform.stc.ClosureParams;
 import groovy.transform.stc.FirstParam;
+import groovy.transform.stc.SecondParam;
 import groovy.transform.stc.SimpleType;
+import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 import org.codehaus.groovy.runtime.InvokerHelper;
@@ -15,11 +21,15 @@ import org.yaml.snakeyaml.Yaml;
 import ru.dpohvar.varscript.caller.Caller;
 import ru.dpohvar.varscript.event.CompileFileEvent;
 import ru.dpohvar.varscript.event.CompileScriptEvent;
+import ru.dpohvar.varscript.extension.region.Region;
 import ru.dpohvar.varscript.trigger.*;
 import ru.dpohvar.varscript.utils.FileTime;
+import ru.dpohvar.varscript.utils.LruCache;
 
 import java.io.*;
+import java.lang.annotation.Annotation;
 import java.util.*;
+import java.util.logging.Logger;
 
 public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
 
@@ -31,8 +41,17 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
     private final File autorunDirectory;
     private final GroovyClassLoader groovyClassLoader;
     private final CompilerConfiguration compilerConfiguration;
-    private final Binding binding = new Binding();
-    private final WeakHashMap<String,Class> cacheClasses = new WeakHashMap<String, Class>();
+    private final VarScriptBinding binding = new VarScriptBinding();
+    public static final String COMPILE_DYNAMIC = "dynamic";
+    public static final String COMPILE_STATIC = "static";
+    public static final String COMPILE_TYPE_CHECKED = "type-checked";
+
+    private final LruCache<String,Class> cacheClasses;
+    private final String compileMode;
+    private volatile List<FileTime> failedServiceUnit;
+    private volatile Throwable failedServiceError;
+    private final Set<File> autorunSources = Collections.synchronizedSet(new HashSet<File>());
+    private boolean trackSources = false;
 
     public Workspace(WorkspaceService workspaceService, String name) {
         this.workspaceService = workspaceService;
@@ -44,10 +63,40 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         compilerConfiguration.setScriptBaseClass(CallerScript.class.getName());
         List<CompilationCustomizer> compilationCustomizers = compilerConfiguration.getCompilationCustomizers();
         compilerConfiguration.getClasspath().addAll(workspaceService.getClassPath());
+        compilerConfiguration.setRecompileGroovySource(workspaceService.isHotReload());
         String encoding = workspaceService.getVarScript().getConfig().getString("sources.encoding");
         if (encoding != null) compilerConfiguration.setSourceEncoding(encoding);
         compilationCustomizers.addAll(workspaceService.getCompilationCustomizers());
+        compileMode = readYamlCompileMode();
+        if (!compileMode.equals(COMPILE_DYNAMIC)) {
+            Map<String,Object> parameters = new HashMap<String, Object>();
+            parameters.put("extensions", Collections.singletonList(ScriptTypeCheckingExtension.class.getName()));
+            Class<? extends Annotation> annotation = compileMode.equals(COMPILE_STATIC) ? CompileStatic.class : TypeChecked.class;
+            compilationCustomizers.add(new ASTTransformationCustomizer(parameters, annotation));
+        }
         groovyClassLoader = new GroovyClassLoader(workspaceService.getGroovyClassLoader(), compilerConfiguration);
+        FileConfiguration config = workspaceService.getVarScript().getConfig();
+        cacheClasses = new LruCache<String, Class>(
+                config.getInt("cache.scripts.capacity", 128),
+                config.getLong("cache.scripts.idle-seconds", 600) * 1000
+        );
+    }
+
+    /**
+     * Workspace without sources and caches, scripts are compiled by its class loader in dynamic mode.
+     * For benchmarks of scripts, see {@link CallerScript#initializeScript(Workspace, Binding)}
+     * @param workspaceService service, may be created without plugin
+     */
+    Workspace(WorkspaceService workspaceService) {
+        this.workspaceService = workspaceService;
+        this.name = "detached";
+        autorunFile = null;
+        autorunDirectory = null;
+        compilerConfiguration = new CompilerConfiguration();
+        compilerConfiguration.setScriptBaseClass(CallerScript.class.getName());
+        groovyClassLoader = new GroovyClassLoader(Workspace.class.getClassLoader(), compilerConfiguration);
+        cacheClasses = null;
+        compileMode = COMPILE_DYNAMIC;
     }
 
     @Override
@@ -63,6 +112,13 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         return compilerConfiguration;
     }
 
+    /**
+     * @return compile mode from workspace config.yml: dynamic, static or type-checked
+     */
+    public String getCompileMode() {
+        return compileMode;
+    }
+
     public GroovyClassLoader getGroovyClassLoader() {
         return groovyClassLoader;
     }
@@ -99,22 +155,65 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         return checkCanonicalName(autorunDirectory);
     }
 
-    public Binding getBinding() {
+    public VarScriptBinding getBinding() {
         return binding;
     }
 
     public Object doAutorun(){
         Object result = null;
         Caller caller = workspaceService.getVarScript().getCallerService().getConsoleCaller();
-        if (getAutorunDirectoryExists() != null) {
-            result = doAutorunService(caller);
-        }
-        if (getAutorunFileExists() != null) {
-            result = doAutorunFile(caller);
+        autorunSources.clear();
+        trackSources = true;
+        try {
+            if (getAutorunDirectoryExists() != null) {
+                result = doAutorunService(caller);
+            }
+            if (getAutorunFileExists() != null) {
+                result = doAutorunFile(caller);
+            }
+        } finally {
+            trackSources = false;
         }
         return result;
     }
 
+    /**
+     * Check if autorun of this workspace depends on the file
+     * @param file changed file
+     * @return true if workspace should be reloaded
+     */
+    public boolean dependsOn(File file){
+        File canonicalFile = canonical(file);
+        if (canonicalFile.equals(canonical(autorunFile))) return true;
+        if (isInside(canonicalFile, canonical(autorunDirectory))) return true;
+        File classesDirectory = canonical(workspaceService.getClassesDirectory());
+        synchronized (autorunSources) {
+            for (File source : autorunSources) {
+                if (source.equals(canonicalFile)) return true;
+                Set<File> dependencies = workspaceService.getSourceDependencies(source);
+                if (dependencies == null) {
+                    if (isInside(canonicalFile, classesDirectory)) return true;
+                } else if (dependencies.contains(canonicalFile)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInside(File file, File directory){
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(directory)) return true;
+        }
+        return false;
+    }
+
+    private static File canonical(File file){
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
     public Object doAutorunFile(Caller caller){
         try {
             return executeScript(caller, autorunFile, null);
@@ -125,10 +224,9 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
     }
 
     private Object doAutorunService(Caller caller){
-        String serviceFileName = readYamlAutorunName();
-        if (serviceFileName == null) serviceFileName = "main.groovy";
-        File serviceFile = checkCanonicalName(new File(autorunDirectory, serviceFileName));
+        File serviceFile = getAutorunServiceFile();
         if (serviceFile == null) return null;
+        compileServiceUnit();
         try {
             return executeScript(caller, serviceFile, null);
         } catch (Throwable e) {
@@ -137,7 +235,112 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         }
     }
 
+    public File getAutorunServiceFile(){
+        String serviceFileName = readYamlAutorunName();
+        if (serviceFileName == null) serviceFileName = "main.groovy";
+        return checkCanonicalName(new File(autorunDirectory, serviceFileName));
+    }
+
+    /**
+     * Compile autorun sources of workspace without running them.
+     * Can be called from any thread, compile errors are ignored
+     * and will be reported on autorun.
+     * @return list of compiled files and directories
+     */
+    public List<File> precompileAutorun(){
+        List<File> files = new ArrayList<File>();
+        CompileReport report = compileServiceUnit();
+        if (report != null && report.getError() == null) files.add(autorunDirectory);
+        if (getAutorunFileExists() != null) try {
+            compileFile(autorunFile);
+            files.add(autorunFile);
+        } catch (Throwable ignored) {}
+        return files;
+    }
+
+    /**
+     * Compile all groovy files of autorun directory as one compilation unit
+     * and put their classes to cache of compiled files.
+     * Can be called from any thread. If compilation fails,
+     * files will be compiled one by one on demand.
+     * @return report of compilation, or null if there is nothing to compile
+     */
+    public CompileReport compileServiceUnit(){
+        if (getAutorunDirectoryExists() == null) return null;
+        List<File> files = new ArrayList<File>();
+        collectSourceFiles(autorunDirectory, files);
+        if (files.isEmpty()) return null;
+        CompileReport report = new CompileReport(autorunDirectory);
+        long start = System.nanoTime();
+        List<FileTime> fileTimes = new ArrayList<FileTime>();
+        boolean cached = true;
+        for (File file : files) {
+            FileTime fileTime = new FileTime(file);
+            fileTimes.add(fileTime);
+            if (cached && workspaceService.getCompiledFileTimeCache(fileTime, compileMode) == null) cached = false;
+        }
+        if (cached) {
+            report.setCached(true);
+            return report;
+        }
+        if (fileTimes.equals(failedServiceUnit)) {
+            Throwable error = failedServiceError;
+            report.setError(error != null ? error : new IllegalStateException("compilation failed"));
+            return report;
+        }
+        try {
+            Map<File, Class> classes = workspaceService.parseClasses(groovyClassLoader, compilerConfiguration, files, compileMode, report);
+            for (int i = 0; i < files.size(); i++) {
+                Class scriptClass = classes.get(files.get(i));
+                if (scriptClass != null) workspaceService.setCompiledFileTimeCache(fileTimes.get(i), compileMode, scriptClass);
+            }
+        } catch (Throwable e) {
+            report.setError(e);
+            failedServiceError = e;
+            failedServiceUnit = fileTimes;
+        }
+        report.setTime(System.nanoTime() - start);
+        logServiceUnit(files.size(), report);
+        return report;
+    }
+
+    private void logServiceUnit(int fileCount, CompileReport report){
+        Logger logger = workspaceService.getVarScript().getLogger();
+        long time = report.getTime() / 1000000;
+        if (report.getError() != null) {
+            logger.warning("workspace " + name + ": compilation of " + fileCount + " files failed in " + time + " ms, " +
+                    "files will be compiled separately: " + report.getError().getMessage());
+        } else if (report.isCached()) {
+            logger.info("workspace " + name + ": " + report.getClassCount() + " classes of " + fileCount + " files " +
+                    "loaded from bytecode cache in " + time + " ms");
+        } else {
+            StringBuilder phases = new StringBuilder();
+            for (Map.Entry<String, Long> entry : report.getPhaseTimes().entrySet()) {
+                if (phases.length() > 0) phases.append(", ");
+                phases.append(entry.getKey()).append(' ').append(entry.getValue() / 1000000).append(" ms");
+            }
+            logger.info("workspace " + name + ": " + report.getClassCount() + " classes of " + fileCount + " files " +
+                    "compiled in " + time + " ms (" + phases + ")");
+        }
+    }
+
     private String readYamlAutorunName(){
+        Object main = readYamlValue("main");
+        if (main instanceof String) return (String) main;
+        else return null;
+    }
+
+    private String readYamlCompileMode(){
+        Object mode = readYamlValue("compile");
+        if (mode == null) return COMPILE_DYNAMIC;
+        String value = mode.toString().toLowerCase();
+        if (value.equals(COMPILE_STATIC) || value.equals(COMPILE_TYPE_CHECKED) || value.equals(COMPILE_DYNAMIC)) return value;
+        Caller caller = workspaceService.getVarScript().getCallerService().getConsoleCaller();
+        caller.sendErrorMessage("unknown compile mode: " + mode + ", expected: static, type-checked or dynamic", name);
+        return COMPILE_DYNAMIC;
+    }
+
+    private Object readYamlValue(String key){
         File yamlFile = new File(autorunDirectory, "config.yml");
         InputStream inputStream = null;
         try {
@@ -149,9 +352,7 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
             Yaml yaml = new Yaml();
             Object data = yaml.load(reader);
             if (!(data instanceof Map)) return null;
-            Object main = ((Map) data).get("main");
-            if (main instanceof String) return (String) main;
-            else return null;
+            return ((Map) data).get(key);
         } catch (FileNotFoundException e) {
             return null;
         } catch (UnsupportedEncodingException e) {
@@ -174,18 +375,27 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         script = event.getScript();
         if (event.isCancelled() || script == null) return null;
 
-        String scriptName = caller.getSender().getName() + "@" + this.name;
-        String hashString = scriptName + '\t' + script;
-        Class scriptClass = cacheClasses.get(hashString);
+        String normalizedScript = normalizeScript(script);
+        String hash = BytecodeCache.hash(normalizedScript);
+        Class scriptClass = cacheClasses.get(hash);
         if (scriptClass == null) {
-            GroovyCodeSource source = new GroovyCodeSource(script, scriptName, "/groovy/script");
+            String scriptName = "Script_" + hash.substring(0, 16);
+            GroovyCodeSource source = new GroovyCodeSource(normalizedScript, scriptName, "/groovy/script");
             scriptClass = groovyClassLoader.parseClass(source, false);
-            cacheClasses.put(hashString, scriptClass);
+            cacheClasses.put(hash, scriptClass);
         }
         if (!CallerScript.class.isAssignableFrom(scriptClass)) return scriptClass;
         else return ((CallerScript)scriptClass.newInstance()).initializeScript(this, caller, binding);
     }
 
+    public LruCache<String, Class> getScriptClassCache() {
+        return cacheClasses;
+    }
+
+    private static String normalizeScript(String script){
+        return script.replace("\r\n", "\n").replace('\r', '\n').trim();
+    }
+
     public Object compileScript(Caller caller, File file, Binding binding) throws IllegalAccessException, InstantiationException, IOException {
 
         CompileFileEvent event = new CompileFileEvent(caller, file, this);
@@ -195,15 +405,71 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
 
 
         if (!file.isFile()) throw new IllegalArgumentException("file not found: "+file);
+        Class scriptClass = compileFile(file);
+        if (!CallerScript.class.isAssignableFrom(scriptClass)) return scriptClass;
+        else return ((CallerScript)scriptClass.newInstance()).initializeScript(this, caller, binding);
+    }
+
+    public Class compileFile(File file) throws IOException {
+        return compileFile(file, null);
+    }
+
+    public Class compileFile(File file, CompileReport report) throws IOException {
+        long start = System.nanoTime();
         FileTime fileTime = new FileTime(file);
-        Class scriptClass = workspaceService.getCompiledFileTimeCache(fileTime);
+        Class scriptClass = workspaceService.getCompiledFileTimeCache(fileTime, compileMode);
         if (scriptClass == null) {
-            GroovyCodeSource source = new GroovyCodeSource(file);
-            scriptClass = groovyClassLoader.parseClass(source, false);
-            workspaceService.setCompiledFileTimeCache(fileTime, scriptClass);
+            scriptClass = workspaceService.parseClass(groovyClassLoader, compilerConfiguration, file, compileMode, report);
+            workspaceService.setCompiledFileTimeCache(fileTime, compileMode, scriptClass);
+        } else if (report != null) {
+            report.setCached(true);
         }
-        if (!CallerScript.class.isAssignableFrom(scriptClass)) return scriptClass;
-        else return ((CallerScript)scriptClass.newInstance()).initializeScript(this, caller, binding);
+        if (report != null) report.setTime(System.nanoTime() - start);
+        if (trackSources) autorunSources.add(fileTime.file);
+        return scriptClass;
+    }
+
+    /**
+     * @return autorun file and all groovy files in autorun directory of workspace
+     */
+    public List<File> getSourceFiles(){
+        List<File> result = new ArrayList<File>();
+        if (getAutorunFileExists() != null) result.add(autorunFile);
+        if (getAutorunDirectoryExists() != null) collectSourceFiles(autorunDirectory, result);
+        return result;
+    }
+
+    private static void collectSourceFiles(File directory, List<File> result){
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().startsWith(".")) continue;
+            if (file.isDirectory()) collectSourceFiles(file, result);
+            else if (file.getName().endsWith(".groovy")) result.add(file);
+        }
+    }
+
+    /**
+     * Compile all source files of workspace without running them.
+     * Autorun directory is compiled as one unit, like on autorun.
+     * Can be called from any thread
+     * @return report of autorun directory and report of autorun file
+     */
+    public List<CompileReport> compileSources(){
+        List<CompileReport> reports = new ArrayList<CompileReport>();
+        CompileReport serviceReport = compileServiceUnit();
+        if (serviceReport != null) reports.add(serviceReport);
+        if (getAutorunFileExists() != null) {
+            CompileReport report = new CompileReport(autorunFile);
+            try {
+                compileFile(autorunFile, report);
+            } catch (Throwable e) {
+                report.setError(e);
+            }
+            reports.add(report);
+        }
+        return reports;
     }
 
     public Object executeScript(Caller caller, String script, Binding binding) throws Exception {
@@ -224,6 +490,8 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
     }
 
     private Set<Trigger> triggers = new LinkedHashSet<Trigger>();
+    private static final int FINISHED_TRIGGERS_CAPACITY = 32;
+    private final LinkedList<ProfiledTrigger> finishedTriggers = new LinkedList<ProfiledTrigger>();
 
     @Override
     public <T extends Event> BukkitEventTrigger<T> listen(Class<T> eventClass){
@@ -258,6 +526,30 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         return listen(eventClass, priority, ignoreCancelled).call(handler);
     }
 
+    @Override
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass){
+        boolean async = BukkitEventTrigger.isAsync(params);
+        BukkitEventTrigger<T> trigger = listen(eventClass, BukkitEventTrigger.getPriority(params), BukkitEventTrigger.isIgnoreCancelled(params));
+        try {
+            trigger.filter(params);
+            if (async) trigger.async(params);
+            return trigger;
+        } catch (RuntimeException e) {
+            trigger.stop();
+            throw e;
+        }
+    }
+
+    @Override
+    public <T extends Event> BukkitEventTrigger<T> listen(Map<String,?> params, Class<T> eventClass, @ClosureParams(SecondParam.FirstGenericType.class) Closure handler){
+        BukkitEventTrigger<T> trigger = listen(params, eventClass);
+        try {
+            return trigger.call(handler);
+        } catch (RuntimeException e) {
+            trigger.stop();
+            throw e;
+        }
+    }
 
     @Override
     public BukkitEventTrigger listen( Closure closure){
@@ -344,6 +636,44 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         return interval(interval, interval, true, handler);
     }
 
+    @Override
+    public BlockClickTrigger click(Block block){
+        if (disabled || removed) throw new IllegalStateException("workspace is disabled");
+        return new BlockClickTrigger(this, triggers, block);
+    }
+
+    @Override
+    public BlockClickTrigger click(Block block, Closure handler){
+        return click(block).call(handler);
+    }
+
+    @Override
+    public BlockClickTrigger click(Block block, Object actions, Closure handler){
+        return click(block).actions(actions).call(handler);
+    }
+
+    @Override
+    public RegionTrigger enter(Region region){
+        if (disabled || removed) throw new IllegalStateException("workspace is disabled");
+        return new RegionTrigger(this, triggers, region, true);
+    }
+
+    @Override
+    public RegionTrigger enter(Region region, Closure handler){
+        return enter(region).call(handler);
+    }
+
+    @Override
+    public RegionTrigger leave(Region region){
+        if (disabled || removed) throw new IllegalStateException("workspace is disabled");
+        return new RegionTrigger(this, triggers, region, false);
+    }
+
+    @Override
+    public RegionTrigger leave(Region region, Closure handler){
+        return leave(region).call(handler);
+    }
+
     @Override
     public StopHookTrigger stopHook(){
         return new StopHookTrigger(this, triggers);
@@ -455,6 +785,28 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
         return triggers.toArray(result);
     }
 
+    /**
+     * Keep stats of trigger, which is finished or disabled, for profile.
+     * Only last 32 triggers are kept
+     * @param trigger finished trigger
+     */
+    public void addFinishedTrigger(ProfiledTrigger trigger) {
+        synchronized (finishedTriggers) {
+            finishedTriggers.remove(trigger);
+            finishedTriggers.addLast(trigger);
+            if (finishedTriggers.size() > FINISHED_TRIGGERS_CAPACITY) finishedTriggers.removeFirst();
+        }
+    }
+
+    /**
+     * @return finished and disabled triggers, oldest first
+     */
+    public ProfiledTrigger[] getFinishedTriggers() {
+        synchronized (finishedTriggers) {
+            return finishedTriggers.toArray(new ProfiledTrigger[finishedTriggers.size()]);
+        }
+    }
+
     @Override
     public Object getProperty(String property) {
         return binding.getVariable(property);
@@ -479,13 +831,11 @@ public class Workspace extends GroovyObjectSupport implements TriggerGenerator {
             return getMetaClass().invokeMethod(this, name, args);
         } catch (MissingMethodException ignored){}
 
-        try {
-            Object variable = binding.getVariable(name);
+        Object variable = binding.lookup(name, null);
+        if (variable != null) try {
             if (variable instanceof Closure) return ((Closure) variable).call(arguments);
-            else InvokerHelper.invokeMethod(variable, "call", arguments);
-        }
-        catch (MissingMethodException ignored){}
-        catch (MissingPropertyException ignored){}
+            else return InvokerHelper.invokeMethod(variable, "call", arguments);
+        } catch (MissingMethodException ignored){}
 
         throw new MissingMethodException(name, this.getClass(), arguments);
     }
@@ -15,10 +15,22 @@ import ru.dpohvar.varscript.VarScript;
 import ru.dpohvar.varscript.boot.BootHelper;
 import ru.dpohvar.varscript.boot.VarScriptClassLoader;
 import ru.dpohvar.varscript.caller.Caller;
+import ru.dpohvar.varscript.trigger.AsyncEventExecutor;
+import ru.dpohvar.varscript.trigger.BlockClickIndex;
+import ru.dpohvar.varscript.trigger.RegionIndex;
+import ru.dpohvar.varscript.trigger.TriggerErrorReporter;
+import ru.dpohvar.varscript.utils.DirectoryWatcher;
+import ru.dpohvar.varscript.utils.FileNameIndex;
 import ru.dpohvar.varscript.utils.FileTime;
+import ru.dpohvar.varscript.utils.LruCache;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class WorkspaceService extends GroovyObjectSupport {
 
@@ -61,16 +73,51 @@ public class WorkspaceService extends GroovyObjectSupport {
     private final List<CompilationCustomizer> compilationCustomizers = new LinkedList<CompilationCustomizer>();
     private final List<String> classPath = new LinkedList<String>();
     private final List<GroovyObject> dynamicModifiers = new ArrayList<GroovyObject>();
-    private final Map<FileTime,Class> compiledFileTimeCache = new WeakHashMap<FileTime, Class>();
+    private final LruCache<List<?>,Class> compiledFileTimeCache;
     private final Map<String,Class> importTabCompleteClasses = new HashMap<String, Class>();
     private final CompilerConfiguration compilerConfiguration;
-
-    private Binding binding = new Binding();
+    private final BytecodeCache bytecodeCache;
+    private final DirectoryWatcher directoryWatcher;
+    private final FileNameIndex scriptNameIndex;
+    private final FileNameIndex autorunNameIndex;
+    private final HotReloader hotReloader;
+    private final CompileExecutor compileExecutor;
+    private final AsyncEventExecutor asyncEventExecutor;
+    private final TriggerErrorReporter triggerErrorReporter;
+    private final BlockClickIndex blockClickIndex;
+    private final RegionIndex regionIndex;
+    private final Map<File,Set<File>> sourceDependencies = new ConcurrentHashMap<File, Set<File>>();
+
+    private final VarScriptBinding binding = new VarScriptBinding();
 
     private static String getClassShortName(String className){
         return className.substring(className.lastIndexOf('.')+1);
     }
 
+    /**
+     * Service without plugin, sources, caches and executors, only its binding can be used.
+     * For benchmarks of scripts in {@link Workspace#Workspace(WorkspaceService)}
+     */
+    WorkspaceService(){
+        autorunDirectory = null;
+        serviceDirectory = null;
+        scriptsDirectory = null;
+        classesDirectory = null;
+        groovyClassLoader = null;
+        compiledFileTimeCache = null;
+        compilerConfiguration = null;
+        bytecodeCache = null;
+        directoryWatcher = null;
+        scriptNameIndex = null;
+        autorunNameIndex = null;
+        hotReloader = null;
+        compileExecutor = null;
+        asyncEventExecutor = null;
+        triggerErrorReporter = null;
+        blockClickIndex = null;
+        regionIndex = null;
+    }
+
     public WorkspaceService(VarScript varscript){
         VarScriptClassLoader libLoader = VarScript.libLoader;
         this.varscript = varscript;
@@ -79,8 +126,13 @@ public class WorkspaceService extends GroovyObjectSupport {
         this.scriptsDirectory = new File(config.getString("sources.scripts"));
         this.classesDirectory = new File(config.getString("sources.classes"));
         this.serviceDirectory = new File(config.getString("sources.services"));
+        this.compiledFileTimeCache = new LruCache<List<?>, Class>(
+                config.getInt("cache.files.capacity", 256),
+                config.getLong("cache.files.idle-seconds", 1800) * 1000
+        );
         ImportCustomizer importCustomizer = new ImportCustomizer();
         compilationCustomizers.add(importCustomizer);
+        StringBuilder importSignature = new StringBuilder();
         for (Map<?, ?> anImport : config.getMapList("import")) {
             Object scanPackageValue = anImport.get("scan-package");
             String aScanPackage = scanPackageValue != null ? scanPackageValue.toString() : null;
@@ -94,6 +146,7 @@ public class WorkspaceService extends GroovyObjectSupport {
                     try {
                         importCustomizer.addImport( getClassShortName(cName), cName);
                         importTabCompleteClasses.put(getClassShortName(cName), libLoader.loadClass(cName));
+                        importSignature.append(getClassShortName(cName)).append('=').append(cName).append(';');
                     } catch (ClassNotFoundException ignored) {}
                 }
             }
@@ -106,11 +159,15 @@ public class WorkspaceService extends GroovyObjectSupport {
                     Class clazz = libLoader.loadClass(aClass);
                     importTabCompleteClasses.put(alias, clazz);
                     importCustomizer.addImport(alias, aClass);
+                    importSignature.append(alias).append('=').append(aClass).append(';');
                 } catch (ClassNotFoundException ignored) {}
             }
             Object packageValue = anImport.get("package");
             String aPackage = packageValue != null ? packageValue.toString() : null;
-            if (aPackage != null) importCustomizer.addStarImports(aPackage);
+            if (aPackage != null) {
+                importCustomizer.addStarImports(aPackage);
+                importSignature.append(aPackage).append(".*;");
+            }
         }
         classPath.add(classesDirectory.toString());
 
@@ -118,10 +175,62 @@ public class WorkspaceService extends GroovyObjectSupport {
         compilerConfiguration.setScriptBaseClass(CallerScript.class.getName());
         compilerConfiguration.getCompilationCustomizers().addAll(compilationCustomizers);
         compilerConfiguration.getClasspath().addAll(classPath);
+        compilerConfiguration.setRecompileGroovySource(isHotReload());
         String encoding = getSourcesEncoding();
         if (encoding != null) compilerConfiguration.setSourceEncoding(encoding);
         groovyClassLoader = new GroovyClassLoader(VarScript.libLoader, compilerConfiguration);
-        VarScript.libLoader.monitorFolder(groovyClassLoader, serviceDirectory);
+        directoryWatcher = new DirectoryWatcher(Arrays.asList(serviceDirectory, autorunDirectory, scriptsDirectory, classesDirectory));
+        VarScript.libLoader.monitorFolder(groovyClassLoader, serviceDirectory, directoryWatcher);
+        int missingCapacity = config.getInt("cache.missing-names.capacity", 1024);
+        long missingIdleTime = config.getLong("cache.missing-names.idle-seconds", 60) * 1000;
+        scriptNameIndex = new FileNameIndex(scriptsDirectory, ".groovy", missingCapacity, missingIdleTime);
+        autorunNameIndex = new FileNameIndex(autorunDirectory, ".groovy", missingCapacity, missingIdleTime);
+        directoryWatcher.addListener(scriptNameIndex);
+        directoryWatcher.addListener(autorunNameIndex);
+        directoryWatcher.start(config.getLong("watch.interval-millis", 1000));
+        compileExecutor = new CompileExecutor(
+                config.getInt("compile.async.threads", 2),
+                config.getInt("compile.async.queue", 64),
+                config.getInt("compile.async.per-caller", 4)
+        );
+        asyncEventExecutor = new AsyncEventExecutor(
+                config.getInt("async-events.threads", 2),
+                config.getInt("async-events.queue", 1024)
+        );
+        triggerErrorReporter = new TriggerErrorReporter(
+                varscript.getCallerService().getConsoleCaller(),
+                config.getLong("trigger-errors.interval-seconds", 10) * 1000,
+                config.getInt("trigger-errors.pause-after", 20),
+                config.getLong("trigger-errors.pause-seconds", 30) * 1000
+        );
+        blockClickIndex = new BlockClickIndex(varscript);
+        regionIndex = new RegionIndex(varscript);
+        if (isHotReload()) {
+            hotReloader = new HotReloader(this, config.getLong("hot-reload.debounce-millis", 500));
+            hotReloader.start();
+        } else {
+            hotReloader = null;
+        }
+
+        if (config.getBoolean("cache.bytecode", true)) {
+            StringBuilder customizerSignature = new StringBuilder();
+            for (CompilationCustomizer customizer : compilationCustomizers) {
+                customizerSignature.append(customizer.getClass().getName()).append(';');
+            }
+            String fingerprint = BytecodeCache.hash(
+                    GroovySystem.getVersion(),
+                    varscript.getDescription().getVersion(),
+                    compilerConfiguration.getScriptBaseClass(),
+                    importSignature.toString(),
+                    customizerSignature.toString(),
+                    String.valueOf(encoding),
+                    classPath.toString()
+            );
+            bytecodeCache = new BytecodeCache(new File(config.getString("cache.directory")), fingerprint);
+        } else {
+            bytecodeCache = new BytecodeCache();
+        }
+        bytecodeCache.setSharedSources(groovyClassLoader, serviceDirectory);
     }
 
     public CompilerConfiguration getCompilerConfiguration() {
@@ -136,6 +245,116 @@ public class WorkspaceService extends GroovyObjectSupport {
         return groovyClassLoader;
     }
 
+    public DirectoryWatcher getDirectoryWatcher() {
+        return directoryWatcher;
+    }
+
+    public boolean isHotReload(){
+        return varscript.getConfig().getBoolean("hot-reload.enabled", false);
+    }
+
+    /**
+     * @return index of script files by name
+     */
+    public FileNameIndex getScriptNameIndex() {
+        return scriptNameIndex;
+    }
+
+    /**
+     * @return index of workspace autorun files by workspace name
+     */
+    public FileNameIndex getAutorunNameIndex() {
+        return autorunNameIndex;
+    }
+
+    public CompileExecutor getCompileExecutor() {
+        return compileExecutor;
+    }
+
+    /**
+     * @return worker pool of asynchronous event handlers
+     */
+    public AsyncEventExecutor getAsyncEventExecutor() {
+        return asyncEventExecutor;
+    }
+
+    /**
+     * @return aggregated report of trigger exceptions
+     */
+    public TriggerErrorReporter getTriggerErrorReporter() {
+        return triggerErrorReporter;
+    }
+
+    /**
+     * @return shared index of block click triggers
+     */
+    public BlockClickIndex getBlockClickIndex() {
+        return blockClickIndex;
+    }
+
+    /**
+     * @return shared index of region triggers
+     */
+    public RegionIndex getRegionIndex() {
+        return regionIndex;
+    }
+
+    public void shutdown(){
+        compileExecutor.shutdown();
+        asyncEventExecutor.shutdown();
+        triggerErrorReporter.shutdown();
+        if (hotReloader != null) hotReloader.stop();
+        directoryWatcher.stop();
+    }
+
+    public BytecodeCache getBytecodeCache() {
+        return bytecodeCache;
+    }
+
+    public Class parseClass(GroovyClassLoader loader, CompilerConfiguration configuration, File file) throws IOException {
+        return parseClass(loader, configuration, file, null, null);
+    }
+
+    /**
+     * Compile file or load it from bytecode cache
+     * @param loader class loader to define classes
+     * @param configuration compiler configuration
+     * @param file source file
+     * @param variant name of configuration variant, used as part of cache key
+     * @param report report to fill, or null
+     * @return main class of file
+     */
+    public Class parseClass(GroovyClassLoader loader, CompilerConfiguration configuration, File file, String variant, CompileReport report) throws IOException {
+        return parseClasses(loader, configuration, Collections.singletonList(file), variant, report).get(file);
+    }
+
+    /**
+     * Compile files as one compilation unit or load them from bytecode cache
+     * @param loader class loader to define classes
+     * @param configuration compiler configuration
+     * @param files source files
+     * @param variant name of configuration variant, used as part of cache key
+     * @param report report to fill, or null
+     * @return main class of each file
+     */
+    public Map<File,Class> parseClasses(GroovyClassLoader loader, CompilerConfiguration configuration, List<File> files, String variant, CompileReport report) throws IOException {
+        if (report == null) report = new CompileReport(null);
+        Map<File,Class> result = bytecodeCache.parseClasses(loader, configuration, files, variant, report);
+        Set<File> canonicalDependencies = new HashSet<File>();
+        for (File dependency : report.getDependencies()) canonicalDependencies.add(dependency.getCanonicalFile());
+        for (File file : files) canonicalDependencies.add(file.getCanonicalFile());
+        for (File file : files) sourceDependencies.put(file.getCanonicalFile(), canonicalDependencies);
+        return result;
+    }
+
+    /**
+     * @param file canonical source file
+     * @return canonical files the source depends on, or null if unknown
+     */
+    public Set<File> getSourceDependencies(File file){
+        return sourceDependencies.get(file);
+    }
+
     public List<GroovyObject> getDynamicModifiers() {
         return dynamicModifiers;
     }
@@ -161,9 +380,72 @@ public class WorkspaceService extends GroovyObjectSupport {
 
     public void startAutorun(){
         List<String> list = varscript.getConfig().getStringList("autorun");
-        if (list != null) for (String name : list) {
-            getOrCreateWorkspace(name);
+        if (list == null || list.isEmpty()) return;
+        Map<String,Workspace> workspaces = new LinkedHashMap<String, Workspace>();
+        for (String name : list) {
+            if (workspaceMap.containsKey(name) || workspaces.containsKey(name)) continue;
+            workspaces.put(name, new Workspace(this, name));
+        }
+        precompile(workspaces.values());
+        for (Workspace workspace : workspaces.values()) {
+            if (!workspaceMap.containsKey(workspace.getName())) startWorkspace(workspace);
+        }
+    }
+
+    private void precompile(Collection<Workspace> workspaces){
+        if (workspaces.isEmpty()) return;
+        int threads = varscript.getConfig().getInt("compile.threads", 0);
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        threads = Math.min(threads, workspaces.size());
+        final Logger logger = varscript.getLogger();
+        List<Workspace> workspaceList = new ArrayList<Workspace>(workspaces);
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (final Workspace workspace : workspaceList) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    long start = System.nanoTime();
+                    List<File> files = workspace.precompileAutorun();
+                    long time = (System.nanoTime() - start) / 1000000;
+                    if (!files.isEmpty()) logger.info("workspace " + workspace.getName() + " compiled in " + time + " ms: " + files);
+                    return null;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        if (threads <= 1) {
+            for (int i = 0; i < tasks.size(); i++) try {
+                tasks.get(i).call();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "precompile of workspace " + workspaceList.get(i).getName() + " failed", e);
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VarScript-compile-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                List<Future<Object>> futures = executor.invokeAll(tasks);
+                for (int i = 0; i < futures.size(); i++) try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, "precompile of workspace " + workspaceList.get(i).getName() + " failed", e.getCause());
+                } catch (CancellationException e) {
+                    logger.warning("precompile of workspace " + workspaceList.get(i).getName() + " was cancelled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
+            }
         }
+        long time = (System.nanoTime() - start) / 1000000;
+        logger.info(workspaces.size() + " autorun workspaces compiled in " + time + " ms using " + threads + " threads");
     }
 
     public VarScript getVarScript() {
@@ -182,7 +464,7 @@ public class WorkspaceService extends GroovyObjectSupport {
         return serviceDirectory;
     }
 
-    public Binding getBinding() {
+    public VarScriptBinding getBinding() {
         return binding;
     }
 
@@ -224,13 +506,17 @@ public class WorkspaceService extends GroovyObjectSupport {
         Workspace workspace = workspaceMap.get(workspaceName);
         if (workspace != null) return workspace;
         workspace = new Workspace(this, workspaceName);
-        workspaceMap.put(workspaceName, workspace);
+        startWorkspace(workspace);
+        return workspace;
+    }
+
+    private void startWorkspace(Workspace workspace){
+        workspaceMap.put(workspace.getName(), workspace);
         Object result = workspace.doAutorun();
         if (result != null) {
             Caller caller = varscript.getCallerService().getConsoleCaller();
-            caller.sendMessage(DefaultGroovyMethods.toString(result), workspaceName);
+            caller.sendMessage(DefaultGroovyMethods.toString(result), workspace.getName());
         }
-        return workspace;
     }
 
     public void remove(Workspace workspace) {
@@ -238,6 +524,25 @@ public class WorkspaceService extends GroovyObjectSupport {
         String name = workspace.getName();
         if (workspaceMap.get(name) != workspace) throw new IllegalArgumentException("Workspace is not registered");
         workspaceMap.remove(name);
+        evictCompiledClasses(workspace);
+    }
+
+    /**
+     * Remove classes compiled by workspace from cache of compiled files
+     * @param workspace workspace
+     * @return count of removed classes
+     */
+    public int evictCompiledClasses(Workspace workspace){
+        final ClassLoader workspaceLoader = workspace.getGroovyClassLoader();
+        return compiledFileTimeCache.removeAll(new LruCache.Filter<List<?>, Class>() {
+            @Override
+            public boolean accept(List<?> key, Class value) {
+                for (ClassLoader l = value.getClassLoader(); l != null; l = l.getParent()) {
+                    if (l == workspaceLoader) return true;
+                }
+                return false;
+            }
+        });
     }
 
     public Workspace[] getWorkspaces(){
@@ -274,23 +579,41 @@ public class WorkspaceService extends GroovyObjectSupport {
             return getMetaClass().invokeMethod(this, name, args);
         } catch (MissingMethodException ignored){}
 
-        try {
-            Object variable = binding.getVariable(name);
+        Object variable = binding.lookup(name, null);
+        if (variable != null) try {
             if (variable instanceof Closure) return ((Closure) variable).call(arguments);
-            else InvokerHelper.invokeMethod(variable, "call", arguments);
-        }
-        catch (MissingMethodException ignored){}
-        catch (MissingPropertyException ignored){}
+            else return InvokerHelper.invokeMethod(variable, "call", arguments);
+        } catch (MissingMethodException ignored){}
 
         throw new MissingMethodException(name, this.getClass(), arguments);
     }
 
+    /**
+     * @return cache of compiled files, keyed by compile mode and file time
+     */
+    public LruCache<List<?>, Class> getCompiledFileTimeCache() {
+        return compiledFileTimeCache;
+    }
+
     public Class getCompiledFileTimeCache(FileTime fileTime){
-        return compiledFileTimeCache.get(fileTime);
+        return getCompiledFileTimeCache(fileTime, Workspace.COMPILE_DYNAMIC);
     }
 
     public Class setCompiledFileTimeCache(FileTime fileTime, Class cache){
-        return compiledFileTimeCache.put(fileTime, cache);
+        return setCompiledFileTimeCache(fileTime, Workspace.COMPILE_DYNAMIC, cache);
+    }
+
+    /**
+     * @param fileTime compiled file
+     * @param compileMode compile mode of workspace
+     * @return class compiled from file in compile mode, or null
+     */
+    public Class getCompiledFileTimeCache(FileTime fileTime, String compileMode){
+        return compiledFileTimeCache.get(Arrays.asList(compileMode, fileTime));
+    }
+
+    public Class setCompiledFileTimeCache(FileTime fileTime, String compileMode, Class cache){
+        return compiledFileTimeCache.put(Arrays.asList(compileMode, fileTime), cache);
     }
 }
 
@@ -0,0 +1,60 @@
+package ru.dpohvar.varscript.workspace;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaClassImpl;
+
+/**
+ * Throughput of script handlers with default metaclass and with {@link CallerScriptMetaClass}.
+ * Script calls workspace closure, reads global variable and script variable in a loop.
+ * Workspace and service are created without plugin, only bindings are set.
+ * <p>
+ * Usage: {@code java -cp <classes>:<test-classes>:<groovy>:<bukkit> ru.dpohvar.varscript.workspace.CallerScriptMetaClassBenchmark [iterations] [rounds]}
+ */
+public class CallerScriptMetaClassBenchmark {
+
+    private static final String SCRIPT = "long s = 0; for (int i = 0; i < N; i++) { s += foo(i) + gv + local }; s";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        WorkspaceService service = new WorkspaceService();
+        service.getBinding().setVariable("gv", 2);
+        Workspace workspace = new Workspace(service);
+        workspace.getBinding().setVariable("foo", new Closure(null) {
+            public Object doCall(Object value) {
+                return 1;
+            }
+        });
+        Class scriptClass = workspace.getGroovyClassLoader().parseClass(SCRIPT, "BenchmarkScript.groovy");
+
+        MetaClass defaultMetaClass = new MetaClassImpl(GroovySystem.getMetaClassRegistry(), scriptClass);
+        defaultMetaClass.initialize();
+
+        System.out.println("iterations: " + iterations);
+        for (int round = 1; round <= rounds; round++) {
+            long before = run(workspace, scriptClass, defaultMetaClass, iterations);
+            long after = run(workspace, scriptClass, null, iterations);
+            System.out.printf("round %d: MetaClassImpl %d ms (%.0f calls/s), CallerScriptMetaClass %d ms (%.0f calls/s)%n",
+                    round, before, iterations * 1000.0 / before, after, iterations * 1000.0 / after);
+        }
+    }
+
+    /**
+     * @param metaClass metaclass of script, or null to keep {@link CallerScriptMetaClass}
+     * @return time of script run in millis
+     */
+    private static long run(Workspace workspace, Class scriptClass, MetaClass metaClass, int iterations) throws Exception {
+        Binding binding = new Binding();
+        binding.setVariable("N", iterations);
+        binding.setVariable("local", 3);
+        CallerScript script = ((CallerScript) scriptClass.newInstance()).initializeScript(workspace, binding);
+        if (metaClass != null) script.setMetaClass(metaClass);
+        long start = System.nanoTime();
+        script.run();
+        return Math.max(1, (System.nanoTime() - start) / 1000000);
+    }
+}